@@ -0,0 +1,84 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * JavaSE implementation of MappedFile with a memory-mapped FileChannel.
+ * A single mapping is used, so files are limited to 2GB.
+ */
+public class MappedFileImpl {
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    public boolean open(String path) {
+        try {
+            if (path.startsWith("file://")) path = path.substring(7);
+            file = new RandomAccessFile(path, "rw");
+            channel = file.getChannel();
+            map(file.length());
+            return true;
+        } catch (IOException e) {
+            Log.e(e);
+            return false;
+        }
+    }
+
+    private void map(long length) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    public long length() {
+        return buffer == null ? 0 : buffer.capacity();
+    }
+
+    public void setLength(long length) {
+        try {
+            if (buffer != null) buffer.force();
+            file.setLength(length);
+            map(length);
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    public byte[] read(long offset, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.get(data);
+        return data;
+    }
+
+    public void write(long offset, byte[] data) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.put(data);
+    }
+
+    public void force() {
+        if (buffer != null) buffer.force();
+    }
+
+    public void close() {
+        try {
+            force();
+            buffer = null;
+            if (channel != null) channel.close();
+            if (file != null) file.close();
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    public boolean isSupported() {
+        return true;
+    }
+}
@@ -14,6 +14,8 @@ import org.ecs160.a2.ui.Summary;
 import org.ecs160.a2.ui.TaskList;
 import org.ecs160.a2.ui.containers.UpdateableContainer;
 import org.ecs160.a2.utils.Database;
+import org.ecs160.a2.utils.SpanCompactor;
+import org.ecs160.a2.utils.TaskRepository;
 
 import java.lang.Object;
 
@@ -52,6 +54,8 @@ public class AppMain {
       });
 
       Database.init();
+      TaskRepository.init();
+      SpanCompactor.init();
    }
 
    public void start() {
@@ -69,6 +73,8 @@ public class AppMain {
    }
 
    public void stop() {
+      TaskRepository.flush();
+      Database.sync();
       current = getCurrentForm();
       if (current instanceof Dialog) {
          ((Dialog) current).dispose();
@@ -0,0 +1,56 @@
+package org.ecs160.a2.models;
+
+/**
+ * The size of a Task. A Task saves its size as the ordinal, so new sizes
+ * may only be added at the end.
+ */
+public enum Size {
+    NONE("None"), S("S"), M("M"), L("L"), XL("XL");
+
+    // all sizes by ordinal, values() copies its array on every call
+    public static final Size[] ALL = values();
+
+    // number of sizes, the length of arrays indexed by ordinal
+    public static final int COUNT = ALL.length;
+
+    private final String label;
+
+    Size(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return The name of the size as shown and exported
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Parse a size saved or entered as a String, ignoring case
+     *
+     * @param label The name of the size, e.g. "M" or "None"
+     * @return The size, or NONE if the name is unknown
+     */
+    public static Size of(String label) {
+        if (label == null) return NONE;
+        String trimmed = label.trim();
+        for (Size size : ALL) {
+            if (size.label.equalsIgnoreCase(trimmed)) return size;
+        }
+        return NONE;
+    }
+
+    /**
+     * @param ordinal The ordinal of a size, as saved
+     * @return The size, or NONE if the ordinal is unknown
+     */
+    public static Size of(int ordinal) {
+        return ordinal >= 0 && ordinal < COUNT ? ALL[ordinal] : NONE;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
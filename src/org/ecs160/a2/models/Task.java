@@ -3,11 +3,14 @@ package org.ecs160.a2.models;
 import com.codename1.io.Externalizable;
 import com.codename1.io.Util;
 import org.ecs160.a2.utils.Database;
+import org.ecs160.a2.utils.TagDictionary;
+import org.ecs160.a2.utils.TaskJournal;
+import org.ecs160.a2.utils.TimeUtils;
+import org.ecs160.a2.utils.VarInt;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -22,16 +25,40 @@ public class Task implements Externalizable {
     // CN1 Storage fields for database
     public static final String OBJECT_ID = "Task";
     public static final String COUNTER_ID = "TaskCounter";
-
-    // The possible list of sizes
-    public static final List<String> sizes = Arrays.asList("S", "M", "L", "XL");
+    public static final String INDEX_ID = "TaskIndex";
+    public static final String ARCHIVE_INDEX_ID = "ArchivedTaskIndex";
+    public static final String TAG_INDEX_ID = "TagIndex";
+    public static final String SIZE_INDEX_ID = "SizeIndex";
+    public static final String SPANS_ID = "TaskSpans";
 
     private int id;
-    private String title, description, size;
+    private String title, description;
+    private byte size; // ordinal of the Size
     private long totalTime; // total time spent (excluding in progress)
-    private List<TimeSpan> timeSpans;
-    private List<String> tags;
+    private int[] tagIDs; // ids in the TagDictionary, in the tags' order
+    private long[] tagBits; // the same ids as a bitset
     private Boolean archived;
+    private boolean inProgress; // whether the last time span is running
+
+    // time spans as epoch milliseconds in packed arrays that grow as needed,
+    // a running span ends at TimeSpan.RUNNING. Null until loaded
+    // (@see #hydrate)
+    private long[] spanStarts, spanEnds;
+    private int spanCount;
+
+    // whether a TaskSnapshot shares the span arrays, they are then copied
+    // before a span is changed in place
+    private boolean spansShared;
+
+    // whether the time spans differ from the ones saved in Storage
+    private boolean spansChanged;
+
+    // changes since the Task was last saved, not externalized
+    private List<TaskJournal.Entry> changes = new ArrayList<>();
+
+    // changes since the Task was last handed to TaskRepository, not
+    // externalized (@see #drainEvents)
+    private List<TaskEvent> events = new ArrayList<>();
 
     /**
      * Default constructor for CN1 Storage
@@ -47,23 +74,40 @@ public class Task implements Externalizable {
      *
      * @param title The title/name of the new Task
      * @param desc  A description of the new Task
-     * @param size  The size of the new Task (@see #sizes)
+     * @param size  The size of the new Task (@see Size)
      * @param tags  The list of tags for the new Task
      */
     public Task(String title, String desc, String size, List<String> tags) {
-        // generate the id
-        id = Database.generateID(COUNTER_ID);
+        this(Database.generateID(COUNTER_ID), title, desc, size, tags);
+    }
+
+    /**
+     * Constructor for a new Task whose id was already taken from a block
+     * reserved in Storage, e.g. by an import
+     *
+     * @param id    The reserved id of the new Task
+     * @param title The title/name of the new Task
+     * @param desc  A description of the new Task
+     * @param size  The size of the new Task (@see Size)
+     * @param tags  The list of tags for the new Task
+     */
+    public Task(int id, String title, String desc, String size,
+                List<String> tags) {
+        this.id = id;
 
         // basic task internals
         this.title = title;
         this.description = desc;
-        this.size = size;
-        this.tags = tags;
+        this.size = (byte) Size.of(size).ordinal();
+        setTagIDs(TagDictionary.intern(tags));
 
         // task time internals
         totalTime = 0L;
-        timeSpans = new ArrayList<>();
+        spanStarts = new long[0];
+        spanEnds = new long[0];
         archived = false;
+        inProgress = false;
+        spansChanged = true;
     }
 
     public int getID() {
@@ -78,62 +122,405 @@ public class Task implements Externalizable {
         return description;
     }
 
+    /**
+     * @return The label of the Task's size (@see Size#getLabel)
+     */
     public String getSize() {
-        return size;
+        return Size.of(size).getLabel();
+    }
+
+    public Size getSizeValue() {
+        return Size.of(size);
     }
 
-    public List<String> getTags() {
+    /**
+     * @return A new list of the Task's tags, looked up in the TagDictionary
+     */
+    public synchronized List<String> getTags() {
+        List<String> tags = new ArrayList<>(tagIDs.length);
+        for (int tagID : tagIDs) {
+            String tag = TagDictionary.nameOf(tagID);
+            if (tag != null) tags.add(tag);
+        }
         return tags;
     }
 
+    /**
+     * @param bits A bitset of tags (@see TagDictionary#toBits)
+     * @return Whether the Task has at least one of the tags
+     */
+    public synchronized boolean hasAnyTag(long[] bits) {
+        return TagDictionary.intersects(tagBits, bits);
+    }
+
+    private void setTagIDs(int[] ids) {
+        tagIDs = ids;
+        tagBits = TagDictionary.toBits(ids);
+    }
+
     public Boolean isArchived() { return archived; }
 
-    public Task setTitle(String newTitle) {
+    public synchronized Task setTitle(String newTitle) {
+        if (!newTitle.equals(title)) {
+            changes.add(TaskJournal.Entry.fieldEdited(id,
+                    TaskJournal.FIELD_TITLE, newTitle));
+            edited(TaskEvent.FIELD_TITLE);
+        }
         title = newTitle;
         return this;
     }
 
-    public Task setDescription(String newDesc) {
+    public synchronized Task setDescription(String newDesc) {
+        if (!newDesc.equals(description)) {
+            changes.add(TaskJournal.Entry.fieldEdited(id,
+                    TaskJournal.FIELD_DESCRIPTION, newDesc));
+            edited(TaskEvent.FIELD_DESCRIPTION);
+        }
         description = newDesc;
         return this;
     }
 
     public Task setSize(String newSize) {
-        size = newSize;
+        return setSize(Size.of(newSize));
+    }
+
+    public synchronized Task setSize(Size newSize) {
+        if (newSize.ordinal() != size) {
+            changes.add(TaskJournal.Entry.fieldEdited(id,
+                    TaskJournal.FIELD_SIZE, newSize.getLabel()));
+            edited(TaskEvent.FIELD_SIZE);
+        }
+        size = (byte) newSize.ordinal();
         return this;
     }
 
-    public Task setTimeSpans(List<TimeSpan> newTimeSpans) {
-        timeSpans = newTimeSpans;
-        totalTime = calculateTotalTime().toMillis();
+    public synchronized Task setTimeSpans(List<TimeSpan> newTimeSpans) {
+        hydrate();
+        // saving a Task without editing its spans must not journal them
+        if (hasSpans(newTimeSpans)) return this;
+        long[] oldStarts = spanStarts;
+        long[] oldEnds = spanEnds;
+        int oldCount = spanCount;
+        setSpans(newTimeSpans);
+        // only the spans that differ change the total
+        for (int i = 0; i < Math.max(oldCount, spanCount); i++) {
+            if (i < oldCount && i < spanCount &&
+                    oldStarts[i] == spanStarts[i] &&
+                    oldEnds[i] == spanEnds[i]) continue;
+            if (i < oldCount) {
+                totalTime -= TimeSpan.length(oldStarts[i], oldEnds[i]);
+            }
+            if (i < spanCount) {
+                totalTime += TimeSpan.length(spanStarts[i], spanEnds[i]);
+            }
+        }
+        spansChanged = true;
+        inProgress = isLastRunning();
+        changes.add(TaskJournal.Entry.taskPut(this));
+        edited(TaskEvent.FIELD_SPANS);
         return this;
     }
 
-    public Task setTags(List<String> newTags) {
-        tags = newTags;
+    public synchronized Task setTags(List<String> newTags) {
+        int[] newIDs = TagDictionary.intern(newTags);
+        if (!Arrays.equals(newIDs, tagIDs)) {
+            changes.add(TaskJournal.Entry.fieldEdited(id,
+                    TaskJournal.FIELD_TAGS, newTags));
+            edited(TaskEvent.FIELD_TAGS);
+        }
+        setTagIDs(newIDs);
         return this;
     }
 
-    public Task setArchived(Boolean newArchived) {
+    public synchronized Task setArchived(Boolean newArchived) {
+        if (!newArchived.equals(archived)) {
+            changes.add(TaskJournal.Entry.fieldEdited(id,
+                    TaskJournal.FIELD_ARCHIVED, newArchived));
+            if (newArchived) {
+                events.add(new TaskEvent(TaskEvent.Type.ARCHIVED, id,
+                        TaskEvent.FIELD_ARCHIVED, 0L));
+            } else {
+                edited(TaskEvent.FIELD_ARCHIVED);
+            }
+        }
         archived = newArchived;
         return this;
     }
 
     /**
+     * Gets and clears the changes made since the Task was last saved
+     *
+     * @return The list of changes as journal entries, oldest first
+     */
+    public synchronized List<TaskJournal.Entry> drainChanges() {
+        List<TaskJournal.Entry> drained = changes;
+        changes = new ArrayList<>();
+        return drained;
+    }
+
+    /**
+     * Put back changes that were drained but could not be saved, ahead of
+     * the changes made since, so that they are saved with the next write
+     *
+     * @param drained The changes returned by drainChanges
+     */
+    public synchronized void restoreChanges(List<TaskJournal.Entry> drained) {
+        List<TaskJournal.Entry> restored = new ArrayList<>(drained);
+        restored.addAll(changes);
+        changes = restored;
+    }
+
+    /**
+     * Gets the whole Task as one journal entry and clears the changes made
+     * since it was last saved, which the entry already holds
+     *
+     * @return A TASK_PUT entry of the Task as it is now
+     */
+    public synchronized TaskJournal.Entry drainAsPut() {
+        changes = new ArrayList<>();
+        return TaskJournal.Entry.taskPut(this);
+    }
+
+    /**
+     * Gets and clears the changes made since the Task was last handed to
+     * TaskRepository, to be published on TaskEvents
+     *
+     * @return The events, oldest first
+     */
+    public synchronized List<TaskEvent> drainEvents() {
+        List<TaskEvent> drained = events;
+        events = new ArrayList<>();
+        return drained;
+    }
+
+    /**
+     * Record an edited field, merged into the last event if it is an edit
+     */
+    private void edited(int field) {
+        int last = events.size() - 1;
+        if (last >= 0 && events.get(last).getType() == TaskEvent.Type.EDITED) {
+            events.set(last, events.get(last).plus(field));
+        } else {
+            events.add(new TaskEvent(TaskEvent.Type.EDITED, id, field, 0L));
+        }
+    }
+
+    /**
+     * Load the time spans from Storage if they have not been loaded yet.
+     * Tasks are read from Storage without their time spans, since most
+     * views only need the Task's header fields.
+     */
+    private void hydrate() {
+        if (spanStarts != null) return;
+        setSpans(Database.readPackedSpans(id));
+        // totals saved before version 4 may be off (@see #getVersion)
+        totalTime = sumTotalTime();
+    }
+
+    /**
+     * @return The sum of the lengths of all stopped spans
+     */
+    private long sumTotalTime() {
+        long total = 0L;
+        for (int i = 0; i < spanCount; i++) {
+            total += TimeSpan.length(spanStarts[i], spanEnds[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Replace the packed spans with a list of TimeSpans
+     */
+    private void setSpans(List<TimeSpan> spans) {
+        spanStarts = new long[spans.size()];
+        spanEnds = new long[spans.size()];
+        spanCount = 0;
+        spansShared = false;
+        for (TimeSpan span : spans) {
+            addSpan(TimeUtils.toEpochMilli(span.getStart()),
+                    span.isRunning() ? TimeSpan.RUNNING :
+                            TimeUtils.toEpochMilli(span.getEnd()));
+        }
+    }
+
+    /**
+     * Replace the packed spans with arrays the Task takes over
+     *
+     * @param spans The starts and ends (@see TimeSpan#readPackedColumn)
+     */
+    private void setSpans(long[][] spans) {
+        spanStarts = spans[0];
+        spanEnds = spans[1];
+        spanCount = spans[0].length;
+        spansShared = false;
+    }
+
+    /**
+     * @return Whether the packed spans are the same as a list of TimeSpans
+     */
+    private boolean hasSpans(List<TimeSpan> spans) {
+        if (spans.size() != spanCount) return false;
+        for (int i = 0; i < spanCount; i++) {
+            TimeSpan span = spans.get(i);
+            long end = span.isRunning() ? TimeSpan.RUNNING :
+                    TimeUtils.toEpochMilli(span.getEnd());
+            if (TimeUtils.toEpochMilli(span.getStart()) != spanStarts[i] ||
+                    end != spanEnds[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Append a span, growing the arrays by half when they are full
+     */
+    private void addSpan(long start, long end) {
+        if (spanCount == spanStarts.length) {
+            int capacity = Math.max(4, spanCount + (spanCount >> 1));
+            spanStarts = Arrays.copyOf(spanStarts, capacity);
+            spanEnds = Arrays.copyOf(spanEnds, capacity);
+            spansShared = false;
+        }
+        spanStarts[spanCount] = start;
+        spanEnds[spanCount] = end;
+        spanCount++;
+    }
+
+    /**
+     * @return The packed spans as a new list of TimeSpans
+     */
+    private List<TimeSpan> toList() {
+        return TimeSpan.toList(spanStarts, spanEnds, spanCount);
+    }
+
+    private boolean isLastRunning() {
+        return spanCount > 0 && spanEnds[spanCount - 1] == TimeSpan.RUNNING;
+    }
+
+    /**
+     * @return Whether the time spans have been loaded from Storage
+     */
+    public synchronized boolean isHydrated() {
+        return spanStarts != null;
+    }
+
+    /**
+     * Drop the loaded time spans if they are saved in Storage, they are
+     * loaded again when needed
+     */
+    public synchronized void releaseTimeSpans() {
+        if (spansChanged) return;
+        spanStarts = null;
+        spanEnds = null;
+        spanCount = 0;
+    }
+
+    /**
+     * Gets the time spans to be saved in Storage and marks them as saved
+     *
+     * @return The changed time spans, or null if they are already saved
+     */
+    public synchronized List<TimeSpan> drainChangedTimeSpans() {
+        if (!spansChanged || spanStarts == null) return null;
+        spansChanged = false;
+        return toList();
+    }
+
+    /**
+     * Set time spans that were saved outside of the Task's span record
+     * (e.g. in the journal), they are saved with the Task's next write
+     *
+     * @param spans The starts and ends, taken over by the Task (@see
+     *              TimeSpan#readPackedColumn)
+     */
+    public synchronized void restoreTimeSpans(long[][] spans) {
+        setSpans(spans);
+        totalTime = sumTotalTime();
+        inProgress = isLastRunning();
+        spansChanged = true;
+    }
+
+    /**
+     * Set time spans read as TimeSpan objects, e.g. by an import (@see
+     * #restoreTimeSpans(long[][]))
+     */
+    public synchronized void restoreTimeSpans(List<TimeSpan> spans) {
+        setSpans(spans);
+        totalTime = sumTotalTime();
+        inProgress = isLastRunning();
+        spansChanged = true;
+    }
+
+    /**
+     * Gets the time spans as TimeSpan objects. The list is a copy, changes
+     * to it are only kept by passing it to setTimeSpans. Use forEachSpan or
+     * getSpanStart/getSpanEnd to read the spans without allocating.
+     *
      * @return The list of accumulated time spans so far for this Task
      */
-    public List<TimeSpan> getTimeSpans() {
-        return timeSpans;
+    public synchronized List<TimeSpan> getTimeSpans() {
+        hydrate();
+        return toList();
+    }
+
+    /**
+     * @return The number of time spans of this Task
+     */
+    public synchronized int getSpanCount() {
+        hydrate();
+        return spanCount;
+    }
+
+    /**
+     * @param i The index of the span, below getSpanCount()
+     * @return The start of the span in epoch milliseconds
+     */
+    public synchronized long getSpanStart(int i) {
+        hydrate();
+        return spanStarts[i];
+    }
+
+    /**
+     * @param i The index of the span, below getSpanCount()
+     * @return The end of the span in epoch milliseconds, or
+     * TimeSpan.RUNNING if it is still running
+     */
+    public synchronized long getSpanEnd(int i) {
+        hydrate();
+        return spanEnds[i];
+    }
+
+    /**
+     * Visit every time span in order while holding the Task's lock
+     *
+     * @param visitor Called with the start and end of each span in epoch
+     *                milliseconds, the end is TimeSpan.RUNNING if running
+     */
+    public synchronized void forEachSpan(TimeSpan.Visitor visitor) {
+        hydrate();
+        for (int i = 0; i < spanCount; i++) {
+            visitor.visit(spanStarts[i], spanEnds[i]);
+        }
+    }
+
+    /**
+     * Write the time spans as one column (@see TimeSpan#writeColumn)
+     */
+    public synchronized void writeSpanColumn(DataOutputStream out)
+            throws IOException {
+        hydrate();
+        TimeSpan.writeColumn(spanStarts, spanEnds, spanCount, out);
     }
 
     /**
      * Gets the most recently added time span/window
      *
-     * @return The TimeSpan object of the most recently added time span
+     * @return A copy of the most recently added time span
      */
-    public TimeSpan getMostRecentTimeSpan() {
-        if (timeSpans.size() == 0) return null;
-        else return timeSpans.get(timeSpans.size() - 1);
+    public synchronized TimeSpan getMostRecentTimeSpan() {
+        hydrate();
+        if (spanCount == 0) return null;
+        return new TimeSpan(spanStarts[spanCount - 1],
+                spanEnds[spanCount - 1]);
     }
 
     /**
@@ -142,8 +529,7 @@ public class Task implements Externalizable {
      * @return Boolean that indicates whether the Task is running
      */
     public boolean isInProgress() {
-        TimeSpan currentTimeSpan = getMostRecentTimeSpan();
-        return currentTimeSpan != null && currentTimeSpan.isRunning();
+        return inProgress;
     }
 
     /**
@@ -151,13 +537,17 @@ public class Task implements Externalizable {
      *
      * @param startTime The start time of the new TimeSpan
      */
-    public void start(LocalDateTime startTime) {
-        TimeSpan currentTimeSpan = getMostRecentTimeSpan();
+    public synchronized void start(LocalDateTime startTime) {
+        hydrate();
         // task not running
-
-        if (currentTimeSpan == null || (currentTimeSpan != null && 
-                                        !currentTimeSpan.isRunning())) {
-            timeSpans.add(new TimeSpan(startTime, null));
+        if (!isLastRunning()) {
+            long start = TimeUtils.toEpochMilli(startTime);
+            addSpan(start, TimeSpan.RUNNING);
+            inProgress = true;
+            spansChanged = true;
+            changes.add(TaskJournal.Entry.spanStarted(id, start));
+            events.add(new TaskEvent(TaskEvent.Type.STARTED, id,
+                    TaskEvent.FIELD_SPANS, start));
         }
     }
 
@@ -173,11 +563,21 @@ public class Task implements Externalizable {
      *
      * @param stopTime The stop time of the currently running TimeSpan
      */
-    public void stop(LocalDateTime stopTime) {
-        TimeSpan currentTimeSpan = getMostRecentTimeSpan();
-        if (currentTimeSpan != null && currentTimeSpan.isRunning()) {
-            currentTimeSpan.stopSpan(stopTime);
-            totalTime = calculateTotalTime().toMillis();
+    public synchronized void stop(LocalDateTime stopTime) {
+        hydrate();
+        if (isLastRunning()) {
+            long stop = TimeUtils.toEpochMilli(stopTime);
+            if (spansShared) {
+                spanEnds = Arrays.copyOf(spanEnds, spanEnds.length);
+                spansShared = false;
+            }
+            spanEnds[spanCount - 1] = stop;
+            totalTime += TimeSpan.length(spanStarts[spanCount - 1], stop);
+            inProgress = false;
+            spansChanged = true;
+            changes.add(TaskJournal.Entry.spanStopped(id, stop));
+            events.add(new TaskEvent(TaskEvent.Type.STOPPED, id,
+                    TaskEvent.FIELD_SPANS, stop));
         }
     }
 
@@ -189,13 +589,17 @@ public class Task implements Externalizable {
     }
 
     /**
-     * Calculates the total time as a Duration for the current time spans
-     * NOTE: could be public, or called every time total time is
-     * 
-     * @return The total time of the time spans as a Duration object
+     * Take an immutable copy of the Task. The span arrays are shared with
+     * the copy until a span is changed, appending a span does not change
+     * the ones the copy sees.
+     *
+     * @return The snapshot of the Task as it is now
      */
-    private Duration calculateTotalTime() {
-        return TimeSpan.getTotalDuration(timeSpans);
+    public synchronized TaskSnapshot snapshot() {
+        if (spanStarts != null) spansShared = true;
+        return new TaskSnapshot(id, title, description, Size.of(size),
+                tagIDs, tagBits, archived, inProgress, totalTime,
+                spanStarts, spanEnds, spanCount);
     }
 
     /**
@@ -205,24 +609,49 @@ public class Task implements Externalizable {
         return totalTime;
     }
 
+    /**
+     * Gets the total time including the running span, without allocating
+     * once the spans are loaded
+     *
+     * @param nowMillis The current time in epoch milliseconds
+     * @return The total time in milliseconds up to nowMillis
+     */
+    public synchronized long getTotalTime(long nowMillis) {
+        if (!inProgress) return totalTime;
+        hydrate();
+        if (!isLastRunning()) return totalTime;
+        return totalTime + Math.max(0L, nowMillis - spanStarts[spanCount - 1]);
+    }
+
+    /**
+     * Version 1 saved the time spans as a list of TimeSpan objects, version 2
+     * saves them as one delta encoded column (@see TimeSpan#writeColumn).
+     * Version 3 only saves the Task's header, the time spans are saved in a
+     * separate record by Database and loaded on demand. Version 4 only
+     * counts stopped spans, each by its own length, in the saved total time.
+     * Version 5 saves tags as their ids in the TagDictionary. Version 6 saves
+     * the size as one byte, the ordinal of the Size, instead of a String.
+     */
     @Override
     public int getVersion() {
-        return 1;
+        return 6;
     }
 
     /**
      * Write the internal data of a Task object into an output stream
      */
     @Override
-    public void externalize(DataOutputStream out) throws IOException {
+    public synchronized void externalize(DataOutputStream out)
+            throws IOException {
         out.writeInt(id);
         Util.writeUTF(title, out);
         Util.writeUTF(description, out);
-        Util.writeUTF(size, out);
+        out.writeByte(size);
         out.writeLong(totalTime);
-        Util.writeObject(tags, out);
-        Util.writeObject(timeSpans, out);
+        VarInt.writeUnsigned(tagIDs.length, out);
+        for (int tagID : tagIDs) VarInt.writeUnsigned(tagID, out);
         out.writeBoolean(archived);
+        out.writeBoolean(inProgress);
     }
 
     /**
@@ -233,11 +662,31 @@ public class Task implements Externalizable {
         id = in.readInt();
         title = Util.readUTF(in);
         description = Util.readUTF(in);
-        size = Util.readUTF(in);
+        if (ver >= 6) size = (byte) Size.of(in.readByte()).ordinal();
+        else size = (byte) Size.of(Util.readUTF(in)).ordinal();
         totalTime = in.readLong();
-        tags = (List<String>) Util.readObject(in);
-        timeSpans = (List<TimeSpan>) Util.readObject(in);
+        if (ver >= 5) {
+            int[] ids = new int[(int) VarInt.readUnsigned(in)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = (int) VarInt.readUnsigned(in);
+            }
+            setTagIDs(ids);
+        } else {
+            setTagIDs(TagDictionary.intern((List<String>) Util.readObject(in)));
+        }
+        if (ver >= 3) {
+            archived = in.readBoolean();
+            inProgress = in.readBoolean();
+            return;
+        }
+
+        // older versions save the time spans within the Task
+        if (ver < 2) setSpans((List<TimeSpan>) Util.readObject(in));
+        else setSpans(TimeSpan.readPackedColumn(in));
         archived = in.readBoolean();
+        inProgress = isLastRunning();
+        totalTime = sumTotalTime();
+        spansChanged = true;
     }
 
     @Override
@@ -0,0 +1,86 @@
+package org.ecs160.a2.models;
+
+/**
+ * A change of one Task, published on TaskEvents after the change reached
+ * TaskRepository. EDITED events name the changed fields as a bitmask of the
+ * FIELD_ values, consecutive edits are merged into one event.
+ */
+public final class TaskEvent {
+
+    public enum Type {
+        CREATED, STARTED, STOPPED, EDITED, ARCHIVED, DELETED
+    }
+
+    // fields of a Task, as bits of getFields()
+    public static final int FIELD_TITLE = 1;
+    public static final int FIELD_DESCRIPTION = 1 << 1;
+    public static final int FIELD_SIZE = 1 << 2;
+    public static final int FIELD_TAGS = 1 << 3;
+    public static final int FIELD_SPANS = 1 << 4;
+    public static final int FIELD_ARCHIVED = 1 << 5;
+    public static final int ALL_FIELDS = (1 << 6) - 1;
+
+    private final Type type;
+    private final int taskID;
+    private final int fields;
+    private final long time;
+
+    /**
+     * @param type   The kind of change
+     * @param taskID The id of the changed Task
+     * @param fields The changed fields as FIELD_ bits
+     * @param time   The start or stop in epoch milliseconds for STARTED and
+     *               STOPPED events, 0 otherwise
+     */
+    public TaskEvent(Type type, int taskID, int fields, long time) {
+        this.type = type;
+        this.taskID = taskID;
+        this.fields = fields;
+        this.time = time;
+    }
+
+    public static TaskEvent created(int taskID) {
+        return new TaskEvent(Type.CREATED, taskID, ALL_FIELDS, 0L);
+    }
+
+    public static TaskEvent deleted(int taskID) {
+        return new TaskEvent(Type.DELETED, taskID, ALL_FIELDS, 0L);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getTaskID() {
+        return taskID;
+    }
+
+    public int getFields() {
+        return fields;
+    }
+
+    /**
+     * @param field One of the FIELD_ values
+     * @return Whether the field changed
+     */
+    public boolean hasField(int field) {
+        return (fields & field) != 0;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return An EDITED event with one more changed field
+     */
+    TaskEvent plus(int field) {
+        return new TaskEvent(type, taskID, fields | field, time);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + taskID + " fields=" + Integer.toBinaryString(
+                fields);
+    }
+}
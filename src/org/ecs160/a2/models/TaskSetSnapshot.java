@@ -0,0 +1,152 @@
+package org.ecs160.a2.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable, versioned set of TaskSnapshots by id. A change returns a new
+ * version and leaves this one as it is, so readers on other threads keep a
+ * consistent view without locking.
+ *
+ * The snapshots are kept in a trie of 32-way nodes indexed by the bits of
+ * the id, 5 bits per level. A change only copies the nodes on the path to
+ * its id, all other nodes are shared with the previous version.
+ */
+public final class TaskSetSnapshot {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * Reads the snapshots in the order of their ids
+     */
+    public interface Visitor {
+        void visit(TaskSnapshot task);
+    }
+
+    private final long version;
+    private final Object[] root; // null when empty
+    private final int shift; // bits of the id below the root's level
+    private final int size;
+
+    private TaskSetSnapshot(long version, Object[] root, int shift,
+                            int size) {
+        this.version = version;
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /**
+     * @param version The version of the empty set
+     * @return A set without Tasks
+     */
+    public static TaskSetSnapshot empty(long version) {
+        return new TaskSetSnapshot(version, null, 0, 0);
+    }
+
+    /**
+     * @return The version, one more than the version it was changed from
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The number of Tasks
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id The id of the Task
+     * @return The snapshot of the Task, or null if it is not in the set
+     */
+    public TaskSnapshot get(int id) {
+        if (root == null || id < 0 || (id >>> shift) >= WIDTH) return null;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(id >>> level) & MASK];
+            if (node == null) return null;
+        }
+        return (TaskSnapshot) node[id & MASK];
+    }
+
+    /**
+     * @param task The snapshot of a new or changed Task
+     * @return The next version, with the Task added or replaced
+     */
+    public TaskSetSnapshot with(TaskSnapshot task) {
+        int id = task.getID();
+        if (id < 0) throw new IllegalArgumentException("id " + id);
+        int added = get(id) == null ? 1 : 0;
+
+        // grow the trie until the id fits below its root
+        Object[] newRoot = root;
+        int newShift = shift;
+        while ((id >>> newShift) >= WIDTH) {
+            if (newRoot != null) {
+                Object[] parent = new Object[WIDTH];
+                parent[0] = newRoot;
+                newRoot = parent;
+            }
+            newShift += BITS;
+        }
+        newRoot = put(newRoot, newShift, id, task);
+        return new TaskSetSnapshot(version + 1, newRoot, newShift,
+                size + added);
+    }
+
+    /**
+     * @param id The id of a removed Task
+     * @return The next version without the Task
+     */
+    public TaskSetSnapshot without(int id) {
+        if (get(id) == null) {
+            return new TaskSetSnapshot(version + 1, root, shift, size);
+        }
+        return new TaskSetSnapshot(version + 1, put(root, shift, id, null),
+                shift, size - 1);
+    }
+
+    /**
+     * Visit every Task in the order of their ids
+     */
+    public void forEach(Visitor visitor) {
+        if (root != null) visit(root, shift, visitor);
+    }
+
+    /**
+     * @return A new list of all Tasks in the order of their ids
+     */
+    public List<TaskSnapshot> toList() {
+        List<TaskSnapshot> all = new ArrayList<>(size);
+        forEach(all::add);
+        return all;
+    }
+
+    /**
+     * Copy the path to an id and set its value there
+     *
+     * @return The copied node
+     */
+    private static Object[] put(Object[] node, int shift, int id,
+                                Object value) {
+        Object[] copy = new Object[WIDTH];
+        if (node != null) System.arraycopy(node, 0, copy, 0, WIDTH);
+        int i = (id >>> shift) & MASK;
+        if (shift == 0) copy[i] = value;
+        else copy[i] = put((Object[]) copy[i], shift - BITS, id, value);
+        return copy;
+    }
+
+    private static void visit(Object[] node, int shift, Visitor visitor) {
+        for (Object child : node) {
+            if (child == null) continue;
+            if (shift == 0) visitor.visit((TaskSnapshot) child);
+            else visit((Object[]) child, shift - BITS, visitor);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.ecs160.a2.models;
+
+import org.ecs160.a2.utils.TagDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of a Task at one point in time (@see Task#snapshot). It
+ * can be read on any thread without locking. The spans are only included
+ * if they were loaded when the snapshot was taken, otherwise the saved
+ * spans in Database are the current ones.
+ */
+public final class TaskSnapshot {
+
+    private final int id;
+    private final String title, description;
+    private final Size size;
+    private final int[] tagIDs; // never changed, Tasks replace the array
+    private final long[] tagBits;
+    private final boolean archived, inProgress;
+    private final long totalTime;
+
+    // shared with the Task, which copies them before changing a span
+    private final long[] spanStarts, spanEnds;
+    private final int spanCount;
+
+    TaskSnapshot(int id, String title, String description, Size size,
+                 int[] tagIDs, long[] tagBits, boolean archived,
+                 boolean inProgress, long totalTime, long[] spanStarts,
+                 long[] spanEnds, int spanCount) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.size = size;
+        this.tagIDs = tagIDs;
+        this.tagBits = tagBits;
+        this.archived = archived;
+        this.inProgress = inProgress;
+        this.totalTime = totalTime;
+        this.spanStarts = spanStarts;
+        this.spanEnds = spanEnds;
+        this.spanCount = spanCount;
+    }
+
+    public int getID() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Size getSize() {
+        return size;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public boolean isInProgress() {
+        return inProgress;
+    }
+
+    /**
+     * @return The total time of stopped time spans in milliseconds
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * @return A new list of the tags, looked up in the TagDictionary
+     */
+    public List<String> getTags() {
+        List<String> tags = new ArrayList<>(tagIDs.length);
+        for (int tagID : tagIDs) {
+            String tag = TagDictionary.nameOf(tagID);
+            if (tag != null) tags.add(tag);
+        }
+        return tags;
+    }
+
+    /**
+     * @param bits A bitset of tags (@see TagDictionary#toBits)
+     * @return Whether the Task had at least one of the tags
+     */
+    public boolean hasAnyTag(long[] bits) {
+        return TagDictionary.intersects(tagBits, bits);
+    }
+
+    /**
+     * @return Whether the spans were loaded when the snapshot was taken
+     */
+    public boolean hasSpans() {
+        return spanStarts != null;
+    }
+
+    /**
+     * @param spans The saved starts and ends of a snapshot taken without
+     *              its spans (@see Database#readPackedSpans)
+     * @return A copy of the snapshot with the spans
+     */
+    public TaskSnapshot withSpans(long[][] spans) {
+        return new TaskSnapshot(id, title, description, size, tagIDs,
+                tagBits, archived, inProgress, totalTime, spans[0], spans[1],
+                spans[0].length);
+    }
+
+    /**
+     * @return The number of spans, 0 if they were not loaded
+     */
+    public int getSpanCount() {
+        return spanCount;
+    }
+
+    /**
+     * @return The start of a span in epoch milliseconds
+     */
+    public long getSpanStart(int i) {
+        if (i >= spanCount) throw new IndexOutOfBoundsException("" + i);
+        return spanStarts[i];
+    }
+
+    /**
+     * @return The end of a span in epoch milliseconds, or TimeSpan.RUNNING
+     */
+    public long getSpanEnd(int i) {
+        if (i >= spanCount) throw new IndexOutOfBoundsException("" + i);
+        return spanEnds[i];
+    }
+}
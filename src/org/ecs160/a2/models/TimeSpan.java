@@ -3,11 +3,13 @@ package org.ecs160.a2.models;
 import com.codename1.io.Externalizable;
 import com.codename1.io.Util;
 import org.ecs160.a2.utils.TimeUtils;
+import org.ecs160.a2.utils.VarInt;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.time.*;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -16,9 +18,20 @@ public class TimeSpan implements Externalizable {
     // CN1 Storage field for database
     public static final String OBJECT_ID = "TimeSpan";
 
+    // saved end of a span that is still running
+    public static final long RUNNING = Long.MIN_VALUE;
+
     private LocalDateTime start;
     private LocalDateTime end;
 
+    /**
+     * Reads packed time spans without creating TimeSpan objects
+     * (@see Task#forEachSpan)
+     */
+    public interface Visitor {
+        void visit(long start, long end);
+    }
+
     /**
      * Default constructor for CN1 Storage
      */
@@ -30,6 +43,15 @@ public class TimeSpan implements Externalizable {
         this.end = end;
     }
 
+    /**
+     * @param start The start in epoch milliseconds
+     * @param end   The end in epoch milliseconds, or RUNNING
+     */
+    public TimeSpan(long start, long end) {
+        this(TimeUtils.fromEpochMilli(start),
+                end == RUNNING ? null : TimeUtils.fromEpochMilli(end));
+    }
+
     public LocalDateTime getStart() {
         return start;
     }
@@ -73,36 +95,149 @@ public class TimeSpan implements Externalizable {
     }
 
     /**
-     * Get the duration of all the timespans. If the last one is still
-     * running, then use Duration.now() as the stop time
+     * Get the duration of all the timespans, each from its own start to its
+     * own end. Running spans are counted up to now
      */
     static Duration getTotalDuration(List<TimeSpan> timespans) {
-        Duration duration = Duration.ZERO;
-
-        for (int i = 0; i < timespans.size(); i++) {
-            TimeSpan span = timespans.get(i);
-            LocalDateTime ldt = (i < timespans.size() - 1) ?
-                    timespans.get(i + 1).start : LocalDateTime.now();
-            duration = duration.plus(span.getDuration(ldt));
+        long now = System.currentTimeMillis();
+        long total = 0L;
+        for (TimeSpan span : timespans) {
+            long start = TimeUtils.toEpochMilli(span.start);
+            total += span.isRunning() ? now - start :
+                    TimeUtils.toEpochMilli(span.end) - start;
         }
+        return Duration.ofMillis(total);
+    }
 
-        return duration;
+    /**
+     * @param start The start in epoch milliseconds
+     * @param end   The end in epoch milliseconds, or RUNNING
+     * @return The length of a stopped span, 0 if it is still running
+     */
+    static long length(long start, long end) {
+        return end == RUNNING ? 0L : end - start;
     }
 
+    /**
+     * Version 1 saved start and end as ISO date strings, version 2 saves
+     * them as epoch milliseconds with RUNNING as the end of a running span.
+     * Version 1 data is still read, and is upgraded on its next write.
+     */
     @Override
     public int getVersion() {
-        return 1;
+        return 2;
     }
 
     @Override
     public void externalize(DataOutputStream out) throws IOException {
-        Util.writeUTF(TimeUtils.timeAsDBString(start), out);
-        if (end == null) Util.writeUTF("", out);
-        else Util.writeUTF(TimeUtils.timeAsDBString(end), out);
+        out.writeLong(TimeUtils.toEpochMilli(start));
+        out.writeLong(end == null ? RUNNING : TimeUtils.toEpochMilli(end));
     }
 
     @Override
     public void internalize(int version, DataInputStream in) throws IOException {
+        if (version < 2) {
+            internalizeV1(in);
+            return;
+        }
+        start = TimeUtils.fromEpochMilli(in.readLong());
+        long endMillis = in.readLong();
+        end = (endMillis == RUNNING) ? null
+                : TimeUtils.fromEpochMilli(endMillis);
+    }
+
+    /**
+     * Write a list of spans as one column: the first start, then each start
+     * as the difference to the previous one and each span as its duration,
+     * all as variable length numbers. A running span has no duration, which
+     * is saved as 0, so finished durations are saved off by one.
+     */
+    public static void writeColumn(List<TimeSpan> spans, DataOutputStream out)
+            throws IOException {
+        long[] starts = new long[spans.size()];
+        long[] ends = new long[spans.size()];
+        for (int i = 0; i < starts.length; i++) {
+            TimeSpan span = spans.get(i);
+            starts[i] = TimeUtils.toEpochMilli(span.start);
+            ends[i] = span.end == null ? RUNNING :
+                    TimeUtils.toEpochMilli(span.end);
+        }
+        writeColumn(starts, ends, starts.length, out);
+    }
+
+    /**
+     * Write packed spans as one column (@see #writeColumn(List, ...))
+     *
+     * @param starts The starts in epoch milliseconds
+     * @param ends   The ends in epoch milliseconds, RUNNING if running
+     * @param count  The number of spans in the arrays
+     */
+    public static void writeColumn(long[] starts, long[] ends, int count,
+                                   DataOutputStream out) throws IOException {
+        VarInt.writeUnsigned(count, out);
+        long prevStart = 0L;
+        for (int i = 0; i < count; i++) {
+            long start = starts[i];
+            VarInt.writeSigned(start - prevStart, out);
+            if (ends[i] == RUNNING) {
+                VarInt.writeUnsigned(0L, out);
+            } else {
+                long duration = ends[i] - start;
+                // negative if the span was edited to end before its start
+                VarInt.writeUnsigned(VarInt.zigzag(duration) + 1, out);
+            }
+            prevStart = start;
+        }
+    }
+
+    /**
+     * Read a list of spans written by writeColumn
+     */
+    public static List<TimeSpan> readColumn(DataInputStream in)
+            throws IOException {
+        long[][] spans = readPackedColumn(in);
+        return toList(spans[0], spans[1], spans[0].length);
+    }
+
+    /**
+     * Read spans written by writeColumn into packed arrays, without creating
+     * TimeSpan objects
+     *
+     * @return The starts and the ends in epoch milliseconds, RUNNING if
+     * running, as two arrays as long as the number of spans
+     */
+    public static long[][] readPackedColumn(DataInputStream in)
+            throws IOException {
+        int count = (int) VarInt.readUnsigned(in);
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        long start = 0L;
+        for (int i = 0; i < count; i++) {
+            start += VarInt.readSigned(in);
+            long duration = VarInt.readUnsigned(in);
+            starts[i] = start;
+            ends[i] = duration == 0 ? RUNNING :
+                    start + VarInt.unzigzag(duration - 1);
+        }
+        return new long[][]{starts, ends};
+    }
+
+    /**
+     * @param starts The starts in epoch milliseconds
+     * @param ends   The ends in epoch milliseconds, RUNNING if running
+     * @param count  The number of spans in the arrays
+     * @return The packed spans as a new list of TimeSpans
+     */
+    public static List<TimeSpan> toList(long[] starts, long[] ends,
+                                        int count) {
+        List<TimeSpan> spans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            spans.add(new TimeSpan(starts[i], ends[i]));
+        }
+        return spans;
+    }
+
+    private void internalizeV1(DataInputStream in) throws IOException {
         start = TimeUtils.fromDBString(Util.readUTF(in));
         String endStr = Util.readUTF(in);
         end = (endStr.equals("")) ? null : TimeUtils.fromDBString(endStr);
@@ -2,6 +2,7 @@ package org.ecs160.a2.ui;
 
 import com.codename1.ui.*;
 import com.codename1.ui.layouts.BorderLayout;
+import org.ecs160.a2.utils.TaskExporter;
 
 import java.io.IOException;
 
@@ -63,6 +64,10 @@ public class AppToolbars {
         Toolbar toolbar = createBaseToolbar();
         toolbar.setTitle("Tasks");
         toolbar.addSearchCommand(TaskList::addSearch);
+        toolbar.addCommandToOverflowMenu("Stop All", null,
+                e -> TaskList.stopAll());
+        toolbar.addCommandToOverflowMenu("Archive Inactive", null,
+                e -> TaskList.archiveInactive());
         return toolbar;
     }
 
@@ -74,6 +79,14 @@ public class AppToolbars {
     private Toolbar createSummaryToolbar() {
         Toolbar toolbar = createBaseToolbar();
         toolbar.setTitle("Summary");
+        toolbar.addCommandToOverflowMenu("Export CSV", null,
+                e -> Summary.export(TaskExporter.CSV));
+        toolbar.addCommandToOverflowMenu("Export JSON", null,
+                e -> Summary.export(TaskExporter.JSON));
+        toolbar.addCommandToOverflowMenu("Import CSV", null,
+                e -> Summary.importTasks(TaskExporter.CSV));
+        toolbar.addCommandToOverflowMenu("Import JSON", null,
+                e -> Summary.importTasks(TaskExporter.JSON));
         return toolbar;
     }
 
@@ -1,12 +1,18 @@
 package org.ecs160.a2.ui;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.codename1.components.ToastBar;
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Log;
 import com.codename1.ui.Button;
 import com.codename1.ui.Component;
 import com.codename1.ui.Container;
+import com.codename1.ui.Display;
+import com.codename1.ui.FontImage;
 import com.codename1.ui.layouts.BoxLayout;
 import com.codename1.ui.layouts.GridLayout;
 import com.codename1.ui.plaf.RoundRectBorder;
@@ -14,7 +20,9 @@ import com.codename1.ui.plaf.RoundRectBorder;
 import org.ecs160.a2.models.Task;
 import org.ecs160.a2.ui.containers.UpdateableContainer;
 import org.ecs160.a2.utils.AppConstants;
-import org.ecs160.a2.utils.Database;
+import org.ecs160.a2.utils.TaskExporter;
+import org.ecs160.a2.utils.TaskImporter;
+import org.ecs160.a2.utils.TaskRepository;
 import org.ecs160.a2.utils.UIUtils;
 
 /**
@@ -105,9 +113,9 @@ public class Summary extends UpdateableContainer implements AppConstants {
         pages.get(text).setHidden(false);
     }
 
-    // reload the internal task list by reading in from the static Database
+    // reload the internal task list from the in-memory TaskRepository
     private void reloadTaskList () {
-        taskList = (List) Database.readAll(Task.OBJECT_ID);
+        taskList = TaskRepository.getAll();
     }
 
     // for a given page, check if not hidden and update
@@ -140,4 +148,74 @@ public class Summary extends UpdateableContainer implements AppConstants {
     public void updateContainer(List<Task> taskList) {
         updateSubContainers();
     }
-}
\ No newline at end of file
+
+    /**
+     * Export every task and its time spans to a file in the app's home
+     * directory on a background thread, showing the progress in a toast
+     *
+     * @param format TaskExporter.CSV or TaskExporter.JSON
+     */
+    public static void export(int format) {
+        String fileName = format == TaskExporter.JSON ? "tasks.json" :
+                                                        "tasks.csv";
+        ToastBar.Status status = ToastBar.getInstance().createStatus();
+        status.setMessage("Exporting tasks");
+        status.setShowProgressIndicator(true);
+        status.show();
+
+        Display.getInstance().startThread(() -> {
+            String message;
+            try {
+                String path = new TaskExporter(format).exportToFile(fileName,
+                        (done, total) -> Display.getInstance().callSerially(
+                                () -> status.setProgress(done * 100 / total)));
+                message = "Exported to " + path;
+            } catch (IOException e) {
+                Log.e(e);
+                message = "Export failed";
+            }
+            String result = message;
+            Display.getInstance().callSerially(() -> {
+                status.clear();
+                ToastBar.showMessage(result, FontImage.MATERIAL_SAVE);
+            });
+        }, "TaskExporter").start();
+    }
+
+    /**
+     * Import tasks.csv or tasks.json from the app's home directory on a
+     * background thread, showing the progress in a toast
+     *
+     * @param format TaskExporter.CSV or TaskExporter.JSON
+     */
+    public static void importTasks(int format) {
+        String fileName = format == TaskExporter.JSON ? "tasks.json" :
+                                                        "tasks.csv";
+        ToastBar.Status status = ToastBar.getInstance().createStatus();
+        status.setMessage("Importing tasks");
+        status.setShowProgressIndicator(true);
+        status.show();
+
+        Display.getInstance().startThread(() -> {
+            String message;
+            try {
+                FileSystemStorage fs = FileSystemStorage.getInstance();
+                int count = new TaskImporter(format).run(
+                        fs.openInputStream(fs.getAppHomePath() + fileName),
+                        (tasks, spans) -> Display.getInstance().callSerially(
+                                () -> status.setMessage("Imported " + tasks +
+                                        " tasks")));
+                message = "Imported " + count + " tasks";
+            } catch (IOException e) {
+                Log.e(e);
+                message = "Import failed";
+            }
+            String result = message;
+            Display.getInstance().callSerially(() -> {
+                status.clear();
+                TaskList.refresh();
+                ToastBar.showMessage(result, FontImage.MATERIAL_SAVE);
+            });
+        }, "TaskImporter").start();
+    }
+}
@@ -9,6 +9,7 @@ import org.ecs160.a2.ui.containers.UpdateableContainer;
 import org.ecs160.a2.ui.containers.TaskContainer;
 import org.ecs160.a2.ui.containers.SizeContainer;
 import org.ecs160.a2.ui.containers.StatsContainer;
+import org.ecs160.a2.ui.containers.PeriodContainer;
 import org.ecs160.a2.utils.AppConstants;
 import org.ecs160.a2.utils.UIUtils;
 
@@ -18,7 +19,7 @@ import org.ecs160.a2.utils.UIUtils;
 public class SummaryAll extends UpdateableContainer implements AppConstants {
 
     // label containers
-    private UpdateableContainer tasks, sizes, stats;
+    private UpdateableContainer tasks, sizes, stats, period;
     
     /**
      * Assemble the children of this container
@@ -43,6 +44,12 @@ public class SummaryAll extends UpdateableContainer implements AppConstants {
                                 FONT_SIZE_SUB_TITLE));
         stats = new StatsContainer();
         add(stats);
+
+        // Time tracked in the current periods
+        add(UIUtils.createLabel("Periods", NATIVE_BOLD, COLOR_TITLE,
+                                FONT_SIZE_SUB_TITLE));
+        period = new PeriodContainer();
+        add(period);
     }
 
     /**
@@ -53,5 +60,6 @@ public class SummaryAll extends UpdateableContainer implements AppConstants {
         tasks.updateContainer(taskList);
         sizes.updateContainer(taskList);
         stats.updateContainer(taskList);
+        period.updateContainer(taskList);
     }
 }
\ No newline at end of file
@@ -7,11 +7,15 @@ import com.codename1.ui.Display;
 import com.codename1.ui.layouts.BoxLayout;
 import com.codename1.ui.spinner.Picker;
 
+import org.ecs160.a2.models.Size;
 import org.ecs160.a2.models.Task;
 import org.ecs160.a2.ui.containers.UpdateableContainer;
 import org.ecs160.a2.ui.containers.TaskContainer;
 import org.ecs160.a2.ui.containers.StatsContainer;
+import org.ecs160.a2.ui.containers.PeriodContainer;
 import org.ecs160.a2.utils.AppConstants;
+import org.ecs160.a2.utils.Rollups;
+import org.ecs160.a2.utils.TaskRepository;
 import org.ecs160.a2.utils.UIUtils;
 
 /**
@@ -21,6 +25,7 @@ public class SummarySize extends UpdateableContainer implements AppConstants {
 
     // label containers
     private UpdateableContainer tasks, stats;
+    private PeriodContainer period;
 
     // picker that allows the selection of sizes
     private Picker sizePicker;
@@ -32,7 +37,10 @@ public class SummarySize extends UpdateableContainer implements AppConstants {
         super(new BoxLayout(BoxLayout.Y_AXIS));
 
         // size picker that updates everything on state change
-        String[] sizes = Task.sizes.toArray(new String[Task.sizes.size()]);
+        String[] sizes = new String[Size.COUNT - 1];
+        for (int i = 1; i < Size.COUNT; i++) {
+            sizes[i - 1] = Size.ALL[i].getLabel(); // all but NONE
+        }
         sizePicker = new Picker();
         sizePicker.setType(Display.PICKER_TYPE_STRINGS);
         sizePicker.setStrings(sizes);
@@ -51,15 +59,12 @@ public class SummarySize extends UpdateableContainer implements AppConstants {
                                 FONT_SIZE_SUB_TITLE));
         stats = new StatsContainer();
         add(stats);
-    }
 
-    // filter a task list for the specified size
-    private List<Task> filterTaskList(List<Task> taskList, String size) {
-        List<Task> returnList = new ArrayList<Task>();
-        for (Task task : taskList) {
-            if (task.getSize().equals(size)) returnList.add(task);
-        }
-        return returnList;
+        // Time tracked in the current periods
+        add(UIUtils.createLabel("Periods", NATIVE_BOLD, COLOR_TITLE,
+                                FONT_SIZE_SUB_TITLE));
+        period = new PeriodContainer();
+        add(period);
     }
 
     /**
@@ -68,12 +73,15 @@ public class SummarySize extends UpdateableContainer implements AppConstants {
      */
     @Override
     public void updateContainer(List<Task> taskList) {   
-        // filter the task list
-        List<Task> filteredList;
-        filteredList = filterTaskList(taskList, sizePicker.getSelectedString());
+        // look up the tasks of the size in the size index
+        String size = sizePicker.getSelectedString();
+        List<Task> filteredList = size == null ? new ArrayList<>() :
+                TaskRepository.getBySize(size);
 
         // update the sub containers with that filtered list
         tasks.updateContainer(filteredList);
         stats.updateContainer(filteredList);
+        period.setKey(size == null ? null : Rollups.sizeKey(size));
+        period.updateContainer(filteredList);
     }
 }
\ No newline at end of file
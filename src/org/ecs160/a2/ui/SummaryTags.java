@@ -12,7 +12,10 @@ import org.ecs160.a2.ui.containers.UpdateableContainer;
 import org.ecs160.a2.ui.containers.TaskContainer;
 import org.ecs160.a2.ui.containers.SizeContainer;
 import org.ecs160.a2.ui.containers.StatsContainer;
+import org.ecs160.a2.ui.containers.PeriodContainer;
 import org.ecs160.a2.utils.AppConstants;
+import org.ecs160.a2.utils.Rollups;
+import org.ecs160.a2.utils.TaskRepository;
 import org.ecs160.a2.utils.UIUtils;
 
 /**
@@ -22,6 +25,7 @@ public class SummaryTags extends UpdateableContainer implements AppConstants {
 
     // label containers
     private UpdateableContainer tasks, sizes, stats;
+    private PeriodContainer period;
 
     // picker that allows the selection of tags
     private Picker tagsPicker;
@@ -60,34 +64,24 @@ public class SummaryTags extends UpdateableContainer implements AppConstants {
                                 FONT_SIZE_SUB_TITLE));
         stats = new StatsContainer();
         add(stats);
+
+        // Time tracked in the current periods
+        add(UIUtils.createLabel("Periods", NATIVE_BOLD, COLOR_TITLE,
+                                FONT_SIZE_SUB_TITLE));
+        period = new PeriodContainer();
+        add(period);
     }
 
-    // build the tags picker option for the given task list
-    private void buildTagsPicker(List<Task> taskList) {
-        // clear each time (inefficient)
+    // build the tags picker options from the tag index
+    private void buildTagsPicker() {
         tagsList.clear();
-
-        // buikd the tags list
-        for (Task task : taskList) {
-            for (String tag : task.getTags()) {
-                tagsList.add(tag);
-            }
-        }
+        tagsList.addAll(TaskRepository.getTags());
 
         // convert to array and set the strings of the picker
         String[] tags = tagsList.toArray(new String[tagsList.size()]);
         tagsPicker.setStrings(tags);
     }
 
-    // filter a task list for the specified tag
-    private List<Task> filterTaskList(List<Task> taskList, String tag) {
-        List<Task> returnList = new ArrayList<Task>();
-        for (Task task : taskList) {
-            if (task.getTags().contains(tag)) returnList.add(task);
-        }
-        return returnList;
-    }
-
     /**
      * Update the sub containers after filtering the Task List for the current
      * size.
@@ -98,15 +92,18 @@ public class SummaryTags extends UpdateableContainer implements AppConstants {
     @Override
     public void updateContainer(List<Task> taskList) {   
         // build the picker selections
-        buildTagsPicker(taskList);
+        buildTagsPicker();
 
-        // filter the list
-        List<Task> filteredList;
-        filteredList = filterTaskList(taskList, tagsPicker.getSelectedString());
+        // look up the tasks with the tag in the tag index
+        String tag = tagsPicker.getSelectedString();
+        List<Task> filteredList = tag == null ? new ArrayList<>() :
+                TaskRepository.getByTag(tag);
 
         // update the sub containers with the filtered list
         tasks.updateContainer(filteredList);
         sizes.updateContainer(filteredList);
         stats.updateContainer(filteredList);
+        period.setKey(tag == null ? null : Rollups.tagKey(tag));
+        period.updateContainer(filteredList);
     }
 }
\ No newline at end of file
@@ -7,8 +7,8 @@ import com.codename1.ui.layouts.BoxLayout;
 import com.codename1.ui.layouts.FlowLayout;
 import com.codename1.ui.plaf.Style;
 import org.ecs160.a2.models.Task;
-import org.ecs160.a2.utils.Database;
 import org.ecs160.a2.utils.AppConstants;
+import org.ecs160.a2.utils.TaskRepository;
 import org.ecs160.a2.utils.TimeUtils;
 import org.ecs160.a2.utils.UIUtils;
 
@@ -24,6 +24,10 @@ public class TaskCard extends Container implements AppConstants {
         constructView();
     }
 
+    public Task getTask() {
+        return task;
+    }
+
     private void constructView() {
         MultiButton multiBtn = new MultiButton(task.getTitle());
         if (task.isInProgress()) multiBtn.setTextLine2("In Progress");
@@ -99,7 +103,7 @@ public class TaskCard extends Container implements AppConstants {
     }
 
     /**
-     * Start or stop the task, update db, and refresh
+     * Start or stop the task and update db, TaskList replaces the card
      */
     private void onControl() {
         if (task.isInProgress()) {
@@ -108,8 +112,7 @@ public class TaskCard extends Container implements AppConstants {
             task.start();
             task.setArchived(false);
         }
-        Database.update(Task.OBJECT_ID, task);
-        TaskList.refresh();
+        TaskRepository.update(task);
     }
 
     /**
@@ -120,7 +123,7 @@ public class TaskCard extends Container implements AppConstants {
     }
 
     /**
-     * Show confirm dialog before deleting task in db and refresh
+     * Show confirm dialog before deleting task in db
      */
     private void onDelete() {
         Command delete = new Command("Delete");
@@ -131,8 +134,7 @@ public class TaskCard extends Container implements AppConstants {
                 commands);
 
         if (choice == cancel) return;
-        Database.delete(Task.OBJECT_ID, task.getID());
-        TaskList.refresh();
+        TaskRepository.delete(task.getID());
     }
 
     /**
@@ -146,8 +148,7 @@ public class TaskCard extends Container implements AppConstants {
             task.setArchived(true);
         }
 
-        Database.update(Task.OBJECT_ID, task);
-        TaskList.refresh();
+        TaskRepository.update(task);
     }
 
 }
\ No newline at end of file
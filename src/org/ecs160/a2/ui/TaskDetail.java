@@ -88,7 +88,8 @@ public class TaskDetail extends Form implements AppConstants {
     private void displayTotalTime() {
         addHeader("Total Time");
         Label totalTime = UIUtils.createLabel(
-                TimeUtils.timeAsString(task.getTotalTime()),
+                TimeUtils.timeAsString(
+                        task.getTotalTime(System.currentTimeMillis())),
                 AppConstants.NATIVE_REGULAR, COLOR_REGULAR, FONT_SIZE_TIME);
         totalTime.getAllStyles().setAlignment(Component.CENTER);
         add(totalTime);
@@ -111,6 +112,7 @@ public class TaskDetail extends Form implements AppConstants {
         Command back = new Command("Back") {
             @Override
             public void actionPerformed(ActionEvent evt) {
+                task.releaseTimeSpans(); // only needed by the timeline
                 prev.showBack();
             }
         };
@@ -10,9 +10,10 @@ import com.codename1.ui.layouts.FlowLayout;
 import com.codename1.ui.layouts.TextModeLayout;
 import com.codename1.ui.plaf.Style;
 import com.codename1.ui.spinner.Picker;
+import org.ecs160.a2.models.Size;
 import org.ecs160.a2.models.Task;
 import org.ecs160.a2.models.TimeSpan;
-import org.ecs160.a2.utils.Database;
+import org.ecs160.a2.utils.TaskRepository;
 import org.ecs160.a2.utils.TimeUtils;
 import org.ecs160.a2.utils.UIUtils;
 
@@ -170,8 +171,7 @@ public class TaskEditor extends Dialog {
 
         timeSpans.remove(span);
         task.setTimeSpans(timeSpans);
-        Database.update(Task.OBJECT_ID, task);
-        TaskList.refresh();
+        TaskRepository.update(task);
         init();
     }
 
@@ -191,9 +191,8 @@ public class TaskEditor extends Dialog {
     private void addTaskToDatabase() {
         Task newTask = new Task(taskTitle.getText(), taskDescription.getText(),
                 createSizeText(), extractTags());
-        Database.write(Task.OBJECT_ID, newTask);
+        TaskRepository.add(newTask);
         dispose();
-        TaskList.refresh();
     }
 
     /**
@@ -206,9 +205,8 @@ public class TaskEditor extends Dialog {
                 .setTags(extractTags())
                 .setTimeSpans(timeSpans);
 
-        Database.update(Task.OBJECT_ID, task);
+        TaskRepository.update(task);
         dispose();
-        TaskList.refresh();
     }
 
     /**
@@ -242,10 +240,10 @@ public class TaskEditor extends Dialog {
         sizeDialog.setLayout(BoxLayout.y());
         sizeDialog.getContentPane().setScrollableY(true);
 
-        List<String> taskSizes = Task.sizes;
-
-        for (String size : taskSizes) {
-            MultiButton oneSizeButton = new MultiButton(size);
+        // "None" is shown as the button's placeholder
+        for (Size size : Size.ALL) {
+            if (size == Size.NONE) continue;
+            MultiButton oneSizeButton = new MultiButton(size.getLabel());
             sizeDialog.add(oneSizeButton);
             oneSizeButton.addActionListener(e ->
                     displaySelectedSize(sizeDialog, oneSizeButton, sizeButton)
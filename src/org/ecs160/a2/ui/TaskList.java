@@ -7,21 +7,47 @@ import com.codename1.ui.layouts.BoxLayout;
 import com.codename1.ui.events.ActionEvent;
 
 import org.ecs160.a2.models.Task;
-import org.ecs160.a2.utils.Database;
+import org.ecs160.a2.models.TaskEvent;
+import org.ecs160.a2.utils.TagDictionary;
+import org.ecs160.a2.utils.TaskBatch;
+import org.ecs160.a2.utils.TaskEvents;
+import org.ecs160.a2.utils.TaskRepository;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 
-public class TaskList extends Container {
+/**
+ * The Tasks split into active, inactive and archived sections. The list is
+ * built whole on refresh, after that each TaskEvent only replaces or moves
+ * the card of its Task.
+ */
+public class TaskList extends Container implements TaskEvents.Listener {
 
     public static TaskList instance;
 
+    // sections of the list, as indexes of sections and counts
+    private static final int ACTIVE = 0;
+    private static final int INACTIVE = 1;
+    private static final int ARCHIVED = 2;
+
+    // containers of the cards of each section
+    private final Container[] sections = new Container[3];
+
+    // labels of the number of Tasks in each section
+    private final Label[] counts = new Label[3];
+
+    // listed cards by the id of their Task
+    private final Map<Integer, TaskCard> cards = new HashMap<>();
+
     private final ArrayList<Task> activeList;
     private final ArrayList<Task> inactiveList;
     private final ArrayList<Task> archivedList;
     private String searchString;
+    private boolean archivedExpanded;
 
     public TaskList() {
         super(BoxLayout.y());
@@ -31,11 +57,51 @@ public class TaskList extends Container {
         this.inactiveList = new ArrayList<>();
         this.archivedList = new ArrayList<>();
         this.searchString = "";
+        this.archivedExpanded = false;
 
         this.configContainer();
         this.refreshContainer();
 
+        if (TaskList.instance != null) {
+            TaskEvents.unsubscribe(TaskList.instance);
+        }
         TaskList.instance = this;
+        TaskEvents.subscribe(this);
+    }
+
+    /**
+     * Replaces, moves or removes the card of the changed task, the rest of
+     * the list is left as it is
+     *
+     * @param event The change of a task
+     */
+    @Override
+    public void onTaskEvent(TaskEvent event) {
+        int id = event.getTaskID();
+        TaskCard old = this.cards.remove(id);
+        Container from = null;
+        int index = -1;
+        if (old != null) {
+            from = old.getParent();
+            index = from.getComponentIndex(old);
+            from.removeComponent(old);
+        }
+
+        Task task = event.getType() == TaskEvent.Type.DELETED ? null :
+                TaskRepository.get(id);
+        Container to = task == null ? null : this.sectionOf(task);
+        if (to != null && this.matchesSearch(task)) {
+            TaskCard card = new TaskCard(task);
+            if (to == from) {
+                to.addComponent(index, card);
+            } else {
+                insertByID(to, card);
+            }
+            this.cards.put(id, card);
+        }
+
+        this.updateCounts();
+        this.revalidate();
     }
 
     /**
@@ -69,6 +135,47 @@ public class TaskList extends Container {
         }
     }
 
+    /**
+     * Stops every running task, saving them all together
+     */
+    public static void stopAll() {
+        TaskBatch batch = new TaskBatch();
+        for (Task task : TaskRepository.getUnarchived()) {
+            if (task.isInProgress()) {
+                task.stop();
+                batch.update(task);
+            }
+        }
+        commitBatch(batch);
+    }
+
+    /**
+     * Archives every task that is not running, saving them all together
+     */
+    public static void archiveInactive() {
+        TaskBatch batch = new TaskBatch();
+        for (Task task : TaskRepository.getUnarchived()) {
+            if (!task.isInProgress()) {
+                task.setArchived(true);
+                batch.update(task);
+            }
+        }
+        commitBatch(batch);
+    }
+
+    /**
+     * Commits a batch of changes, the taskList follows their TaskEvents
+     *
+     * @param batch The changes made to the tasks
+     */
+    private static void commitBatch(TaskBatch batch) {
+        if (batch.isEmpty()) return;
+        if (!TaskRepository.commit(batch)) {
+            Dialog.show("Error", "The changes could not be saved", "OK",
+                    null);
+        }
+    }
+
     /**
      * Configures anything to do with the Container holding the task list
      */
@@ -81,6 +188,7 @@ public class TaskList extends Container {
      */
     private void refreshContainer() {
         this.removeAll();
+        this.cards.clear();
         this.loadData();
         this.addLists();
     }
@@ -94,14 +202,36 @@ public class TaskList extends Container {
     }
 
     /**
-     * Creates/refreshes the task list
+     * Creates/refreshes the task list. Archived tasks are only read when
+     * their section is expanded or searched
      */
     private void loadData() {
         this.activeList.clear();
         this.inactiveList.clear();
         this.archivedList.clear();
-        List<Task> allTasks = (List) Database.readAll(Task.OBJECT_ID);
-        this.inputTasks(allTasks);
+        this.inputTasks(TaskRepository.getUnarchived());
+        if (this.isArchiveShown()) {
+            this.archivedList.addAll(TaskRepository.getArchived());
+        }
+    }
+
+    /**
+     * @return Whether the archived tasks are listed, either because their
+     * section is expanded or because they are searched
+     */
+    private boolean isArchiveShown() {
+        return this.archivedExpanded || !this.searchString.equals("");
+    }
+
+    /**
+     * Expands or collapses the archived tasks, reading them on expansion
+     */
+    private void toggleArchived() {
+        this.archivedExpanded = !this.archivedExpanded;
+        if (this.archivedExpanded) {
+            this.refreshContainer();
+            this.revalidate();
+        }
     }
 
     /**
@@ -125,22 +255,72 @@ public class TaskList extends Container {
      * Adds the task lists to the taskList Container
      */
     private void addLists() {
-        this.listTasks("Active Tasks", this.activeList);
-        this.listTasks("Inactive Tasks", this.inactiveList);
-        this.listTasks("Archived Tasks", this.archivedList);
+        this.listTasks(ACTIVE, "Active Tasks", this.activeList);
+        this.listTasks(INACTIVE, "Inactive Tasks", this.inactiveList);
+        if (this.isArchiveShown()) {
+            this.listTasks(ARCHIVED, "Archived Tasks", this.archivedList);
+        } else {
+            this.addComponent(createTasksAccordion(ARCHIVED,
+                    "Archived Tasks", this.archivedList,
+                    TaskRepository.getArchivedCount()));
+        }
+    }
+
+    /**
+     * @param task A listed task
+     * @return The container the task's card belongs in, or null if its
+     * section is not listed
+     */
+    private Container sectionOf(Task task) {
+        if (task.isInProgress()) {
+            return this.sections[ACTIVE];
+        } else if (!task.isArchived()) {
+            return this.sections[INACTIVE];
+        }
+        return this.isArchiveShown() ? this.sections[ARCHIVED] : null;
+    }
+
+    /**
+     * Adds a card to a section in the order the tasks were created
+     *
+     * @param section The container of the section
+     * @param card The card to add
+     */
+    private static void insertByID(Container section, TaskCard card) {
+        int id = card.getTask().getID();
+        int i = 0;
+        while (i < section.getComponentCount() &&
+                ((TaskCard) section.getComponentAt(i)).getTask().getID() < id) {
+            i++;
+        }
+        section.addComponent(i, card);
+    }
+
+    /**
+     * Sets the label of each section to its number of tasks
+     */
+    private void updateCounts() {
+        for (int i = ACTIVE; i <= ARCHIVED; i++) {
+            int count = i == ARCHIVED && !this.isArchiveShown() ?
+                    TaskRepository.getArchivedCount() :
+                    this.sections[i].getComponentCount();
+            this.counts[i].setText(String.valueOf(count));
+        }
     }
 
     /**
      * Creates and adds the content to the Container for each list type given
      * by label
      *
+     * @param section The section of the tasks
      * @param label The label of the task, expects "active" or "inactive"
      * @param tasks The list of tasks that are of type <label>
      */
-    private void listTasks(String label, ArrayList<Task> tasks) {
+    private void listTasks(int section, String label, ArrayList<Task> tasks) {
         tasks = this.searchTasks(tasks);
 
-        Accordion tasksAccordion = createTasksAccordion(label, tasks);
+        Accordion tasksAccordion = createTasksAccordion(section, label, tasks,
+                tasks.size());
 
         this.addComponent(tasksAccordion);
     }
@@ -148,26 +328,34 @@ public class TaskList extends Container {
     /**
      * Creates a task accordion full of tasks as task cards
      *
+     * @param section The section of the tasks
      * @param label The label of the task accordion, Active Tasks, Inactive
      *              Tasks, or Archived Tasks
      * @param tasks The list of tasks to put in the accordion
+     * @param taskCountForLabel The number of tasks shown in the label
      * @return Returns the accordion container
      */
-    private Accordion createTasksAccordion(String label, ArrayList<Task> tasks) {
+    private Accordion createTasksAccordion(int section, String label,
+                                           ArrayList<Task> tasks,
+                                           int taskCountForLabel) {
         Accordion tasksAccordion = new Accordion();
         tasksAccordion.setScrollableY(true);
 
-        int taskCountForLabel = tasks.size();
-
         Container tasksContainer = createAccordionTaskContainer(tasks);
+        this.sections[section] = tasksContainer;
 
-        Container labelContainer = createAccordionLabelContainer(label,
-                taskCountForLabel);
+        Container labelContainer = createAccordionLabelContainer(section,
+                label, taskCountForLabel);
 
         tasksAccordion.addContent(labelContainer, tasksContainer);
 
         if (label.equals("Archived Tasks")) {
-            tasksAccordion.collapse(tasksContainer);
+            tasksAccordion.addOnClickItemListener(e -> this.toggleArchived());
+            if (this.archivedExpanded) {
+                tasksAccordion.expand(tasksContainer);
+            } else {
+                tasksAccordion.collapse(tasksContainer);
+            }
         } else {
             tasksAccordion.expand(tasksContainer);
         }
@@ -187,7 +375,9 @@ public class TaskList extends Container {
 
         tasksContainer.setScrollableY(false);
         for (Task task : tasks) {
-            tasksContainer.addComponent(new TaskCard(task));
+            TaskCard card = new TaskCard(task);
+            tasksContainer.addComponent(card);
+            this.cards.put(task.getID(), card);
         }
 
         return tasksContainer;
@@ -196,18 +386,19 @@ public class TaskList extends Container {
     /**
      * Creates a container for the label of an accordion
      *
+     * @param section The section of the label
      * @param label The tasks to list in the container
      * @param taskCountForLabel The number of tasks so we can add that to the
      *                         label
      * @return Returns the container of the label
      */
-    private Container createAccordionLabelContainer(String label,
+    private Container createAccordionLabelContainer(int section, String label,
                                                     int taskCountForLabel) {
         Container labelContainer = new Container(new BorderLayout());
 
+        this.counts[section] = new Label(String.valueOf(taskCountForLabel));
         labelContainer.add(BorderLayout.WEST, new Label(label));
-        labelContainer.add(BorderLayout.EAST,
-                new Label(String.valueOf(taskCountForLabel)));
+        labelContainer.add(BorderLayout.EAST, this.counts[section]);
 
         return labelContainer;
     }
@@ -224,12 +415,26 @@ public class TaskList extends Container {
             return tasks;
         }
 
+        long[] tagBits = TagDictionary.matching(this.searchString);
         tasks.removeIf(task -> !substringInTitle(task, this.searchString) &&
-                !substringInTags(task, this.searchString));
+                !task.hasAnyTag(tagBits));
 
         return tasks;
     }
 
+    /**
+     * @param task The task to search
+     * @return Whether the task's title or tags match the search, true when
+     * nothing is searched
+     */
+    private boolean matchesSearch(Task task) {
+        if (this.searchString.equals("")) {
+            return true;
+        }
+        return substringInTitle(task, this.searchString) ||
+                task.hasAnyTag(TagDictionary.matching(this.searchString));
+    }
+
     /**
      * Searches if a substring is in a task's title
      *
@@ -242,22 +447,4 @@ public class TaskList extends Container {
         return task.getTitle().toLowerCase(Locale.ROOT).contains(
                 substring.toLowerCase(Locale.ROOT));
     }
-
-    /**
-     * Searches if a substring is in a task's tags
-     *
-     * @param task The task to get tags from
-     * @param substring The substring to search for
-     *
-     * @return A boolean that's true if the substring is found in the tags
-     */
-    private boolean substringInTags(Task task, String substring) {
-        for (String tag : task.getTags()) {
-            if (tag.toLowerCase(Locale.ROOT).contains(
-                    substring.toLowerCase(Locale.ROOT))) {
-                return true;
-            }
-        }
-        return false;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package org.ecs160.a2.ui.containers;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.List;
+
+import com.codename1.components.SpanLabel;
+import com.codename1.ui.layouts.BoxLayout;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.utils.AppConstants;
+import org.ecs160.a2.utils.Rollups;
+import org.ecs160.a2.utils.TaskRepository;
+import org.ecs160.a2.utils.TimeUtils;
+import org.ecs160.a2.utils.UIUtils;
+
+/**
+ * Container that houses the time tracked today and this week. The total of
+ * all Tasks is summed in the interval index, which counts running spans up
+ * to now, the totals of a tag or size are read from the daily rollups.
+ */
+public class PeriodContainer extends UpdateableContainer
+                             implements AppConstants {
+
+    private SpanLabel periodLabel;
+
+    // rollup key of the tag or size shown, all Tasks by default
+    private String key = Rollups.ALL_KEY;
+
+    // inner container constructor
+    public PeriodContainer () {
+        super(new BoxLayout(BoxLayout.Y_AXIS));
+        periodLabel = UIUtils.createSpanLabel("",
+                                              NATIVE_LIGHT,
+                                              COLOR_REGULAR,
+                                              FONT_SIZE_REGULAR);
+        add(periodLabel);
+    }
+
+    /**
+     * Show the totals of a tag or size instead of all Tasks
+     *
+     * @param key The rollup key (@see Rollups), null if nothing is selected
+     */
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Update the internal label to reflect the totals of the periods
+     */
+    @Override
+    public void updateContainer(List<Task> taskList) {
+        LocalDate today = LocalDate.now();
+        LocalDate monday = today.with(DayOfWeek.MONDAY);
+
+        periodLabel.setText(" - " +
+                            TimeUtils.timeAsLabelStr(total(today, today)) +
+                            " today\n" +
+                            " - " +
+                            TimeUtils.timeAsLabelStr(total(monday, today)) +
+                            " this week");
+        forceRevalidate();
+    }
+
+    // read the tracked time of the key for a period
+    private long total(LocalDate from, LocalDate to) {
+        if (key == null) return 0L;
+        if (!key.equals(Rollups.ALL_KEY)) {
+            return TaskRepository.getTotal(key, from, to);
+        }
+        return TaskRepository.getTimeBetween(
+                TimeUtils.toEpochMilli(from.atStartOfDay()),
+                TimeUtils.toEpochMilli(to.plusDays(1).atStartOfDay()));
+    }
+}
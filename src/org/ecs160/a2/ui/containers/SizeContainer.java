@@ -1,13 +1,12 @@
 package org.ecs160.a2.ui.containers;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.codename1.components.SpanLabel;
 import com.codename1.ui.Label;
 import com.codename1.ui.layouts.BoxLayout;
 
+import org.ecs160.a2.models.Size;
 import org.ecs160.a2.models.Task;
 import org.ecs160.a2.utils.AppConstants;
 import org.ecs160.a2.utils.TimeUtils;
@@ -37,22 +36,18 @@ public class SizeContainer extends UpdateableContainer
         add(totalLabel);
     }
 
-    // get size totals for each map available in the task list
-    private Map<String, Long> getTaskSizeTotals (List<Task> taskList) {
-        // use a map to keep track of the current totals for the sizes
-        Map<String, Long> returnMap = new HashMap<String, Long>();
+    // get size totals for the task list, indexed by the sizes' ordinals
+    private long[] getTaskSizeTotals (List<Task> taskList, int[] counts) {
+        long[] totals = new long[Size.COUNT];
 
         // add up totals for the different sizes
         for (Task task : taskList) {
-            if (task.getSize().equals("None")) continue; // no empty
-            long sizeTime = task.getTotalTime();
-            if (returnMap.containsKey(task.getSize())) {
-                sizeTime += returnMap.get(task.getSize());
-            }
-            returnMap.put(task.getSize(), sizeTime);
+            int size = task.getSizeValue().ordinal();
+            totals[size] += task.getTotalTime();
+            counts[size]++;
         }
 
-        return returnMap;
+        return totals;
     }
 
     /**
@@ -64,19 +59,16 @@ public class SizeContainer extends UpdateableContainer
         String labelText = "";
         long totalTime = 0L;
 
-        // use a map to keep track of the current totals for the sizes
-        Map<String, Long> sizeStatsMap = getTaskSizeTotals(taskList);
+        // totals and number of tasks by size
+        int[] counts = new int[Size.COUNT];
+        long[] sizeTotals = getTaskSizeTotals(taskList, counts);
 
-        // make sure label count is proper, then update the text
-        Object[] availableSizes = sizeStatsMap.keySet().toArray();
+        // build the new label text, skipping sizes without tasks
+        for (Size size : Size.ALL) {
+            if (size == Size.NONE || counts[size.ordinal()] == 0) continue;
+            if (labelText.length() > 0) labelText += "\n";
 
-        // build the new label text
-        int numSizes = sizeStatsMap.keySet().size();
-        for (int i = 0; i < numSizes; i++) {
-            if (i > 0) labelText += "\n";
-
-            String size = (String) availableSizes[i];
-            long sizeTime = sizeStatsMap.get(size);
+            long sizeTime = sizeTotals[size.ordinal()];
 
             // add to the total time
             totalTime += sizeTime;
@@ -0,0 +1,142 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.Log;
+import com.codename1.io.Storage;
+import com.codename1.io.Util;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves every record as its own CN1 Storage entry: "Task_<id>" for a Task's
+ * header and "TaskSpans_<id>" for its delta encoded time spans.
+ */
+public class CN1StorageEngine implements StorageEngine {
+
+    // version of the time spans records
+    static final byte SPANS_VERSION = 1;
+
+    private final Storage db = Storage.getInstance();
+
+    // guards the time spans records, which are read without the Database lock
+    private final Object spansLock = new Object();
+
+    /**
+     * Get the Storage's key of a single Task
+     *
+     * @param id The id of the Task
+     */
+    private static String taskKey(int id) {
+        return Task.OBJECT_ID + "_" + id;
+    }
+
+    /**
+     * Get the Storage's key of a single Task's time spans
+     *
+     * @param id The id of the Task
+     */
+    private static String spansKey(int id) {
+        return Task.SPANS_ID + "_" + id;
+    }
+
+    @Override
+    public Object readObject(String key) {
+        return db.readObject(key);
+    }
+
+    @Override
+    public void writeObject(String key, Object value) {
+        db.writeObject(key, value);
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        db.deleteStorageFile(key);
+    }
+
+    @Override
+    public Task readTask(int id) {
+        return (Task) db.readObject(taskKey(id));
+    }
+
+    @Override
+    public void writeTask(Task task) {
+        db.writeObject(taskKey(task.getID()), task);
+    }
+
+    @Override
+    public void deleteTask(int id) {
+        db.deleteStorageFile(taskKey(id));
+        synchronized (spansLock) {
+            db.deleteStorageFile(spansKey(id));
+        }
+    }
+
+    @Override
+    public List<TimeSpan> readTimeSpans(int id) {
+        long[][] spans = readPackedSpans(id);
+        return TimeSpan.toList(spans[0], spans[1], spans[0].length);
+    }
+
+    @Override
+    public long[][] readPackedSpans(int id) {
+        synchronized (spansLock) {
+            if (!db.exists(spansKey(id))) return new long[2][0];
+
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(db.createInputStream(spansKey(id)));
+                in.readByte(); // version of the record
+                return TimeSpan.readPackedColumn(in);
+            } catch (IOException e) {
+                Log.e(e);
+                return new long[2][0];
+            } finally {
+                Util.cleanup(in);
+            }
+        }
+    }
+
+    /**
+     * The spans are delta encoded, so the whole record is decoded
+     */
+    @Override
+    public List<TimeSpan> readTimeSpans(int id, int from, int count) {
+        List<TimeSpan> spans = readTimeSpans(id);
+        int to = Math.min(spans.size(), from + count);
+        if (from >= to) return new ArrayList<>();
+        return new ArrayList<>(spans.subList(from, to));
+    }
+
+    @Override
+    public void writeTimeSpans(int id, List<TimeSpan> spans) {
+        synchronized (spansLock) {
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(db.createOutputStream(spansKey(id)));
+                out.writeByte(SPANS_VERSION);
+                TimeSpan.writeColumn(spans, out);
+            } catch (IOException e) {
+                Log.e(e);
+            } finally {
+                Util.cleanup(out);
+            }
+        }
+    }
+
+    /**
+     * Every Storage entry is written when its stream is closed
+     */
+    @Override
+    public void sync() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
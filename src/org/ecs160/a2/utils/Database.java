@@ -1,30 +1,240 @@
 package org.ecs160.a2.utils;
 
 import com.codename1.io.Log;
+import com.codename1.io.Preferences;
 import com.codename1.io.Storage;
 import com.codename1.io.Util;
+import com.codename1.ui.Display;
 import org.ecs160.a2.models.Task;
 import org.ecs160.a2.models.TimeSpan;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class Database {
 
     static Storage db = Storage.getInstance();
 
+    // Preference for the StorageEngine, one of the ENGINE_ values
+    public static final String ENGINE_PREF = "Database.engine";
+    public static final String ENGINE_STORAGE = "storage";
+    public static final String ENGINE_MAPPED = "mapped";
+    public static final String ENGINE_SQL = "sql";
+    static final String LAST_ENGINE_PREF = "Database.lastEngine";
+
+    // key of the Task and TimeSpan versions the records were saved with
+    static final String SCHEMA_ID = "Schema";
+
+    // where all records are saved, CN1 Storage unless configured otherwise
+    static StorageEngine engine = new CN1StorageEngine();
+
+    // Preferences for the Task journal
+    public static final String JOURNAL_PREF = "Database.journal";
+    public static final String JOURNAL_THRESHOLD_PREF =
+            "Database.journalThreshold";
+    static final String JOURNAL_FILE = "TaskJournal.log";
+
+    // number of ids reserved in Storage at a time
+    static final int ID_BLOCK_SIZE = 1000;
+
+    // ids of the live Tasks in Storage, each Task is saved under its own key
+    private static Vector<Integer> taskIDs;
+
+    // ids of the archived Tasks, a cold segment only read when needed
+    private static Vector<Integer> archivedIDs;
+
+    // ids of all Tasks by tag and by size
+    private static final SecondaryIndex tagIndex =
+            new SecondaryIndex(Task.TAG_INDEX_ID);
+    private static final SecondaryIndex sizeIndex =
+            new SecondaryIndex(Task.SIZE_INDEX_ID);
+
+    // tracked time per day of all Tasks, tags and sizes
+    private static final Rollups rollups = new Rollups();
+
+    // spans of all Tasks by time, built in the background on the first
+    // time window query
+    private static volatile IntervalIndex intervals;
+    private static IntervalIndex building;
+
+    // log of Task changes not yet folded into the Task records
+    private static TaskJournal journal;
+    private static boolean journaled;
+    private static boolean compacting;
+
+    // id allocators by the Storage's key of their high-water mark
+    private static final Map<String, IDAllocator> allocators = new HashMap<>();
+
     /**
      * Register objects to be saved in Storage
      */
     public static void init() {
         Util.register(Task.OBJECT_ID, Task.class);
         Util.register(TimeSpan.OBJECT_ID, TimeSpan.class);
+        String name = Preferences.get(ENGINE_PREF, ENGINE_STORAGE);
+        String last = Preferences.get(LAST_ENGINE_PREF, name);
+        if (engine != null) engine.close();
+        engine = createEngine(last);
+        // allocators read their high-water mark from the engine in use
+        allocators.clear();
+        TagDictionary.load(engine);
+        migrateTaskList();
+        splitArchive();
+        loadIndexes();
+        initJournal();
+        migrate(last, name);
+    }
+
+    /**
+     * @return The current Task and TimeSpan versions
+     */
+    private static Hashtable<String, Integer> currentSchema() {
+        Hashtable<String, Integer> schema = new Hashtable<>();
+        schema.put(Task.OBJECT_ID, new Task().getVersion());
+        schema.put(TimeSpan.OBJECT_ID, new TimeSpan().getVersion());
+        return schema;
+    }
+
+    /**
+     * Upgrade all records if they were saved with older Task or TimeSpan
+     * versions, or move them if the engine was changed. An interrupted
+     * migration is resumed on the next start.
+     *
+     * @param last The engine the records are saved in
+     * @param name The configured engine
+     */
+    private static void migrate(String last, String name) {
+        Hashtable<String, Integer> schema = currentSchema();
+        boolean outdated = !schema.equals(engine.readObject(SCHEMA_ID));
+        boolean switched = !name.equals(last);
+        if (!outdated && !switched) return;
+
+        StorageEngine target = switched ? createEngine(name) : engine;
+        String migration = last + ">" + name + " " + schema;
+        new Migrator(engine, target, migration).run((done, total) ->
+                Log.p("Migrated " + done + " of " + total + " tasks"));
+
+        target.writeObject(SCHEMA_ID, schema);
+        if (switched) engine.close();
+        engine = target;
+        TagDictionary.load(engine);
+        taskIDs = null;
+        archivedIDs = null;
+        loadIndexes();
+        Preferences.set(LAST_ENGINE_PREF, name);
+    }
+
+    /**
+     * Create the configured StorageEngine, falling back to CN1 Storage if
+     * it is not available on this platform
+     *
+     * @param name One of the ENGINE_ values
+     */
+    static StorageEngine createEngine(String name) {
+        if (ENGINE_MAPPED.equals(name)) {
+            StorageEngine mapped = MappedStorageEngine.open();
+            if (mapped != null) return mapped;
+            Log.p("Mapped storage is not supported, using CN1 Storage");
+        }
+        if (ENGINE_SQL.equals(name)) {
+            StorageEngine sql = SQLStorageEngine.open();
+            if (sql != null) return sql;
+            Log.p("SQL storage is not available, using CN1 Storage");
+        }
+        return new CN1StorageEngine();
+    }
+
+    /**
+     * Replay the journal left by the last run over the Task records, then
+     * keep journaling changes if the journal mode is on
+     */
+    private static void initJournal() {
+        journaled = Preferences.get(JOURNAL_PREF, true);
+        long threshold = Preferences.get(JOURNAL_THRESHOLD_PREF, 64 * 1024L);
+        journal = new TaskJournal(JOURNAL_FILE, threshold);
+        journal.replay();
+        compactJournal(true);
+    }
+
+    /**
+     * Fold all journaled changes into the Task records and the id manifests,
+     * then empty the journal
+     */
+    public static synchronized void compactJournal() {
+        compactJournal(false);
+    }
+
+    /**
+     * @param replayed Whether the journal was left by the last run, so the
+     *                 rollups of its Tasks were not updated yet
+     */
+    private static void compactJournal(boolean replayed) {
+        if (journal == null) return;
+
+        for (Integer id : new ArrayList<>(journal.getChangedIDs())) {
+            Task task = journal.apply(id, engine.readTask(id));
+            if (task == null) {
+                engine.deleteTask(id);
+                removeID(id);
+                untrackTask(id);
+            } else {
+                if (replayed) {
+                    rollups.setTask(id, groupsOf(id), groupsOf(task),
+                            task.getTimeSpans());
+                }
+                writeRecord(task);
+                placeTask(task);
+                indexTask(task);
+            }
+        }
+        writeManifests();
+        saveIndexes();
+        // the records must be on the disk before the journal is dropped
+        engine.sync();
+        journal.clear();
+        compacting = false;
+    }
+
+    /**
+     * Compact the journal in the background once it grows too big
+     */
+    private static void scheduleCompaction() {
+        if (compacting || !journal.needsCompaction()) return;
+        compacting = true;
+        Display.getInstance().scheduleBackgroundTask(Database::compactJournal);
     }
 
     /**
-     * Remove all data from Storage, called when changes to db scheme are made
+     * Append changes to the journal. If the journal cannot be written, all
+     * changes are folded into Storage and the Task record is written directly
+     *
+     * @param entries The changes to be journaled
+     * @param task    The Task to write directly on failure, null if deleted
+     */
+    private static void journal(List<TaskJournal.Entry> entries, Task task) {
+        try {
+            TagDictionary.saveChanges();
+            journal.append(entries);
+            scheduleCompaction();
+        } catch (IOException e) {
+            Log.e(e);
+            compactJournal();
+            if (task != null) writeRecord(task);
+        }
+    }
+
+    /**
+     * Remove all data from Storage. Changes to the db scheme no longer need
+     * this, older records are upgraded on init (@see Migrator)
      */
     public static void reset() {
         deleteAll(Task.OBJECT_ID);
@@ -32,25 +242,313 @@ public class Database {
     }
 
     /**
-     * Generate id for Task incrementally
+     * Split the old single Vector of Tasks in CN1 Storage into one record
+     * per Task
+     */
+    private static void migrateTaskList() {
+        if (!db.exists(Task.OBJECT_ID) ||
+                engine.readObject(Task.INDEX_ID) != null) return;
+
+        Vector<Object> tasks = (Vector<Object>) db.readObject(Task.OBJECT_ID);
+        Vector<Integer> ids = new Vector<>();
+        if (tasks != null) {
+            for (Object task : tasks) {
+                int id = ((Task) task).getID();
+                writeRecord((Task) task);
+                ids.add(id);
+            }
+        }
+        writeTaskIDs(ids);
+        db.deleteStorageFile(Task.OBJECT_ID);
+    }
+
+    /**
+     * Move the ids of archived Tasks out of the live manifest into their own
+     * segment, once for records saved before archived Tasks were kept apart
+     */
+    private static void splitArchive() {
+        if (engine.readObject(Task.ARCHIVE_INDEX_ID) != null) return;
+
+        Vector<Integer> live = new Vector<>();
+        Vector<Integer> archived = new Vector<>();
+        for (Integer id : readTaskIDs()) {
+            Task task = engine.readTask(id);
+            if (task != null && task.isArchived()) archived.add(id);
+            else live.add(id);
+        }
+        Collections.sort(live);
+        Collections.sort(archived);
+        writeTaskIDs(live);
+        writeArchivedIDs(archived);
+    }
+
+    /**
+     * Read the tag and size indexes and the rollups, building them from the
+     * Task records if they were not saved yet
+     */
+    private static void loadIndexes() {
+        dropIntervals();
+        boolean tags = tagIndex.load(engine);
+        boolean sizes = sizeIndex.load(engine);
+        if (!tags || !sizes) {
+            tagIndex.clear();
+            sizeIndex.clear();
+            for (Integer id : readAllIDs()) {
+                Task task = engine.readTask(id);
+                if (task != null) indexTask(task);
+            }
+        }
+        if (!rollups.load(engine)) {
+            for (Integer id : readAllIDs()) {
+                Task task = engine.readTask(id);
+                if (task == null) continue;
+                List<TimeSpan> spans = task.isHydrated() ?
+                        task.getTimeSpans() : engine.readTimeSpans(id);
+                rollups.setTask(id, groupsOf(id), groupsOf(task), spans);
+            }
+        }
+        saveIndexes();
+    }
+
+    private static List<String> tagsOf(Task task) {
+        List<String> tags = task.getTags();
+        return tags == null ? Collections.<String>emptyList() : tags;
+    }
+
+    private static List<String> sizesOf(Task task) {
+        String size = task.getSize();
+        return size == null ? Collections.<String>emptyList() :
+                Collections.singletonList(size);
+    }
+
+    private static void indexTask(Task task) {
+        tagIndex.put(task.getID(), tagsOf(task));
+        sizeIndex.put(task.getID(), sizesOf(task));
+    }
+
+    /**
+     * @return The rollup keys of the tags and size a Task is indexed with
+     */
+    private static List<String> groupsOf(int id) {
+        return Rollups.groupsOf(tagIndex.getKeysOf(id),
+                sizeIndex.getKeysOf(id));
+    }
+
+    /**
+     * @return The rollup keys of a Task's current tags and size
+     */
+    private static List<String> groupsOf(Task task) {
+        return Rollups.groupsOf(tagsOf(task), sizesOf(task));
+    }
+
+    /**
+     * Update the rollups and indexes of a Task for its changes. The rollups
+     * go first, since the indexes still hold the Task's old tags and size.
+     *
+     * @param task    The changed Task
+     * @param changes The Task's changes since it was last saved, null if
+     *                the whole Task was written
+     */
+    private static void trackTask(Task task, List<TaskJournal.Entry> changes) {
+        // readTotal reads the rollups and indexes of a Task together
+        synchronized (rollups) {
+            int id = task.getID();
+            List<String> groups = groupsOf(task);
+            rollups.regroup(id, groupsOf(id), groups);
+
+            boolean replaced = changes == null;
+            if (!replaced) {
+                for (TaskJournal.Entry entry : changes) {
+                    replaced |= entry.type == TaskJournal.TASK_PUT;
+                }
+            }
+            if (replaced) {
+                rollups.setTask(id, groups, groups, task.getTimeSpans());
+            } else {
+                for (TaskJournal.Entry entry : changes) {
+                    if (entry.type == TaskJournal.SPAN_STOPPED) {
+                        rollupStopped(task, groups, entry.time);
+                    }
+                }
+            }
+            indexTask(task);
+        }
+    }
+
+    /**
+     * Add the span of a Task that was stopped at a time to the rollups
+     */
+    private static void rollupStopped(Task task, List<String> groups,
+                                      long end) {
+        synchronized (task) {
+            for (int i = task.getSpanCount() - 1; i >= 0; i--) {
+                if (task.getSpanEnd(i) == end) {
+                    rollups.addSpan(task.getID(), groups,
+                            task.getSpanStart(i), end);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void untrackTask(int id) {
+        synchronized (rollups) {
+            rollups.removeTask(id, groupsOf(id));
+            tagIndex.remove(id);
+            sizeIndex.remove(id);
+        }
+    }
+
+    /**
+     * Save the index buckets and rollup months that changed, so that a
+     * single write only rewrites the entries of the Task it touched
+     */
+    private static void saveIndexes() {
+        tagIndex.save(engine);
+        sizeIndex.save(engine);
+        rollups.save(engine);
+    }
+
+    /**
+     * Write a Task's header record, and its time spans record if they were
+     * changed since they were last saved
+     *
+     * @param task The Task to be written to Storage
+     */
+    private static void writeRecord(Task task) {
+        TagDictionary.saveChanges(); // the record holds tag ids
+        engine.writeTask(task);
+        List<TimeSpan> spans = task.drainChangedTimeSpans();
+        if (spans != null) engine.writeTimeSpans(task.getID(), spans);
+    }
+
+    /**
+     * Read the time spans of a Task from their own record. This does not
+     * lock the Database, so that a Task can load its spans while a
+     * background write holds it.
+     *
+     * @param id The id of the Task
+     * @return The Task's time spans, empty if none were saved
+     */
+    public static List<TimeSpan> readTimeSpans(int id) {
+        return engine.readTimeSpans(id);
+    }
+
+    /**
+     * Read the time spans of a Task into packed arrays, without locking the
+     * Database (@see #readTimeSpans)
+     *
+     * @param id The id of the Task
+     * @return The starts and ends (@see StorageEngine#readPackedSpans)
+     */
+    public static long[][] readPackedSpans(int id) {
+        return engine.readPackedSpans(id);
+    }
+
+    /**
+     * Retrieve the ids of the live Tasks in Storage, cached after the first
+     * read
+     */
+    private static Vector<Integer> readTaskIDs() {
+        if (taskIDs == null) {
+            taskIDs = (Vector<Integer>) engine.readObject(Task.INDEX_ID);
+            if (taskIDs == null) taskIDs = new Vector<>();
+        }
+        return taskIDs;
+    }
+
+    /**
+     * Overwrite the ids of the live Tasks in Storage
+     *
+     * @param ids The ids of the live Tasks in ascending order
+     */
+    private static void writeTaskIDs(Vector<Integer> ids) {
+        taskIDs = ids;
+        engine.writeObject(Task.INDEX_ID, ids);
+    }
+
+    /**
+     * Retrieve the ids of the archived Tasks in Storage, cached after the
+     * first read
+     */
+    private static Vector<Integer> readArchivedIDs() {
+        if (archivedIDs == null) {
+            archivedIDs = (Vector<Integer>) engine.readObject(
+                    Task.ARCHIVE_INDEX_ID);
+            if (archivedIDs == null) archivedIDs = new Vector<>();
+        }
+        return archivedIDs;
+    }
+
+    /**
+     * Overwrite the ids of the archived Tasks in Storage
+     *
+     * @param ids The ids of the archived Tasks in ascending order
+     */
+    private static void writeArchivedIDs(Vector<Integer> ids) {
+        archivedIDs = ids;
+        engine.writeObject(Task.ARCHIVE_INDEX_ID, ids);
+    }
+
+    private static void writeManifests() {
+        writeTaskIDs(readTaskIDs());
+        writeArchivedIDs(readArchivedIDs());
+    }
+
+    /**
+     * Move a Task's id into the manifest of its segment, the archived one
+     * if the Task is archived and the live one otherwise. Its record stays
+     * under the same key, so archiving only rewrites the two manifests.
+     *
+     * @param task The Task to be placed
+     * @return Whether either manifest was changed
+     */
+    private static boolean placeTask(Task task) {
+        boolean archived = task.isArchived();
+        Vector<Integer> into = archived ? readArchivedIDs() : readTaskIDs();
+        Vector<Integer> other = archived ? readTaskIDs() : readArchivedIDs();
+        boolean moved = SecondaryIndex.removeSorted(other, task.getID());
+        return SecondaryIndex.insertSorted(into, task.getID()) || moved;
+    }
+
+    /**
+     * Remove an id from both manifests
+     *
+     * @return Whether either manifest was changed
+     */
+    private static boolean removeID(int id) {
+        boolean removed = SecondaryIndex.removeSorted(readTaskIDs(), id);
+        return SecondaryIndex.removeSorted(readArchivedIDs(), id) || removed;
+    }
+
+    private static boolean containsID(int id) {
+        return Collections.binarySearch(readTaskIDs(), id) >= 0 ||
+                Collections.binarySearch(readArchivedIDs(), id) >= 0;
+    }
+
+
+    /**
+     * Generate id for Task incrementally from a block of ids reserved in
+     * Storage, so Storage is only written once per block
      *
      * @param key The Storage's key of Task's id
      */
-    public static int generateID(String key) {
-        int id = readID(key);
-        db.writeObject(key, id + 1);
-        return id;
+    public static synchronized int generateID(String key) {
+        return getAllocator(key).next();
     }
 
     /**
-     * Retrieve the next id for Task from Storage
+     * Get the id allocator of a key, created on first use
      *
-     * @param key The Storage's key of Task class
+     * @param key The Storage's key of the high-water mark
      */
-    private static int readID(String key) {
-        Integer id = (Integer) db.readObject(key);
-        if (id == null) return 0;
-        return id;
+    static synchronized IDAllocator getAllocator(String key) {
+        IDAllocator allocator = allocators.get(key);
+        if (allocator == null) {
+            allocator = new IDAllocator(engine, key, ID_BLOCK_SIZE);
+            allocators.put(key, allocator);
+        }
+        return allocator;
     }
 
     /**
@@ -60,11 +558,54 @@ public class Database {
      * @param val The object to be written to Storage
      */
     public static void write(String key, Object val) {
+        if (Task.OBJECT_ID.equals(key)) {
+            writeTask((Task) val);
+            return;
+        }
         List<Object> vec = readAll(key);
         vec.add(val);
         writeAll(key, vec);
     }
 
+    /**
+     * Add a new Task record to Storage and register its id
+     *
+     * @param task The new Task to be written to Storage
+     */
+    private static synchronized void writeTask(Task task) {
+        List<TaskJournal.Entry> put = Collections.singletonList(
+                task.drainAsPut());
+        boolean added = placeTask(task);
+        trackTask(task, put);
+
+        if (journaled) {
+            journal(put, task);
+            return;
+        }
+        writeRecord(task);
+        if (added) writeManifests();
+        saveIndexes();
+    }
+
+    /**
+     * Write new Tasks straight to their records instead of journaling them,
+     * then register their ids and save the indexes once. A crash midway only
+     * leaves records whose ids are not registered, which are never read.
+     *
+     * @param tasks New Tasks, their ids reserved from Task.COUNTER_ID
+     */
+    static synchronized void insertTasks(List<Task> tasks) {
+        for (Task task : tasks) {
+            task.drainChanges();
+            writeRecord(task);
+            placeTask(task);
+            trackTask(task, null);
+        }
+        writeManifests();
+        saveIndexes();
+        dropIntervals();
+    }
+
     /**
      * Overwrite list of objects in Storage
      *
@@ -72,24 +613,66 @@ public class Database {
      * @param vals The list of objects to be written to Storage
      */
     public static void writeAll(String key, List<Object> vals) {
+        if (Task.OBJECT_ID.equals(key)) {
+            writeAllTasks((List) vals);
+            return;
+        }
         Vector<Object> vec = new Vector<>(vals);
-        db.writeObject(key, vec);
+        engine.writeObject(key, vec);
     }
 
     /**
-     * Replace a Task in Storage
+     * Overwrite all Task records in Storage, removing Tasks not in the list
+     *
+     * @param tasks The list of Tasks to be written to Storage
+     */
+    private static synchronized void writeAllTasks(List<Task> tasks) {
+        compactJournal();
+        Vector<Integer> live = new Vector<>();
+        Vector<Integer> archived = new Vector<>();
+        Set<Integer> kept = new HashSet<>();
+        tagIndex.clear();
+        sizeIndex.clear();
+        rollups.clear();
+        dropIntervals();
+        for (Task task : tasks) {
+            task.drainChanges();
+            rollups.setTask(task.getID(), Collections.<String>emptyList(),
+                    groupsOf(task), task.getTimeSpans());
+            writeRecord(task);
+            indexTask(task);
+            (task.isArchived() ? archived : live).add(task.getID());
+            kept.add(task.getID());
+        }
+        for (Integer id : readAllIDs()) {
+            if (!kept.contains(id)) engine.deleteTask(id);
+        }
+        Collections.sort(live);
+        Collections.sort(archived);
+        writeTaskIDs(live);
+        writeArchivedIDs(archived);
+        saveIndexes();
+    }
+
+    /**
+     * Replace a Task in Storage, only the record of that Task is rewritten.
+     * Archiving or unarchiving it moves its id to the other segment.
      *
      * @param task A Task to replace a current Task with the same id
      */
-    private static void updateTask(Task task) {
-        List<Task> vec = (List) readAll(Task.OBJECT_ID);
-        for (int i = 0; i < vec.size(); i++) {
-            if (vec.get(i).getID() == task.getID()) {
-                vec.set(i, task);
-                break;
-            }
+    private static synchronized void updateTask(Task task) {
+        List<TaskJournal.Entry> changes = task.drainChanges();
+        if (!containsID(task.getID())) return;
+        boolean moved = placeTask(task);
+        trackTask(task, changes);
+
+        if (journaled) {
+            journal(changes, task);
+            return;
         }
-        writeAll(Task.OBJECT_ID, (List) vec);
+        writeRecord(task);
+        if (moved) writeManifests();
+        saveIndexes();
     }
 
     /**
@@ -109,11 +692,287 @@ public class Database {
      * @return List of objects saved in Storage with key
      */
     public static Vector<Object> readAll(String key) {
-        Vector<Object> vec = (Vector<Object>) db.readObject(key);
+        if (Task.OBJECT_ID.equals(key)) return (Vector) readAllTasks();
+        Vector<Object> vec = (Vector<Object>) engine.readObject(key);
         if (vec == null) return new Vector<>();
         return vec;
     }
 
+    /**
+     * Read all Task records from Storage in the order they were created
+     *
+     * @return List of Tasks saved in Storage
+     */
+    private static synchronized Vector<Task> readAllTasks() {
+        return readTasks(readAllIDs());
+    }
+
+    /**
+     * Read the Tasks of one segment in the order they were created, so that
+     * archived Tasks are only read when they are shown
+     *
+     * @param archived Whether to read the archived or the live Tasks
+     * @return List of Tasks saved in the segment
+     */
+    public static synchronized Vector<Task> readTasks(boolean archived) {
+        return readTasks(archived ? readArchivedIDs() : readTaskIDs());
+    }
+
+    private static Vector<Task> readTasks(List<Integer> ids) {
+        Vector<Task> tasks = new Vector<>();
+        for (Integer id : ids) {
+            Task task = readTask(id);
+            if (task != null) tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * @return The number of archived Tasks, without reading their records
+     */
+    public static synchronized int countArchived() {
+        return readArchivedIDs().size();
+    }
+
+    /**
+     * Look up Tasks by tag in the engine if it can query its records,
+     * otherwise in the tag index, without reading any Task records
+     *
+     * @param tag The tag to look up
+     * @return The ids of the Tasks with the tag in ascending order
+     */
+    public static List<Integer> readIDsByTag(String tag) {
+        if (!(engine instanceof TaskQueries)) return tagIndex.get(tag);
+        synchronized (Database.class) {
+            foldJournal();
+            return ((TaskQueries) engine).findByTag(tag);
+        }
+    }
+
+    /**
+     * Look up the Tasks worked on in a time window. Engines that can query
+     * their records answer it directly, otherwise the interval index does.
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     * @return The ids of the Tasks with a span overlapping the window in
+     * ascending order
+     */
+    public static List<Integer> readIDsBetween(long from, long to) {
+        synchronized (Database.class) {
+            if (engine instanceof TaskQueries) {
+                foldJournal();
+                return ((TaskQueries) engine).findBetween(from, to);
+            }
+        }
+        IntervalIndex index = awaitIntervals();
+        return index == null ? new ArrayList<>() :
+                index.getIDsBetween(from, to);
+    }
+
+    /**
+     * Add up the time tracked in a window, each span clipped to the window
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     * @param now  The current time in epoch milliseconds, the end of
+     *             running spans
+     * @return The tracked time in milliseconds
+     */
+    public static long readTimeBetween(long from, long to, long now) {
+        IntervalIndex index = awaitIntervals();
+        return index == null ? 0L : index.sumBetween(from, to, now);
+    }
+
+    /**
+     * Get the interval index, waiting for it to be built on first use. The
+     * EDT keeps handling events while it waits.
+     *
+     * @return The index, null if the wait was interrupted
+     */
+    private static IntervalIndex awaitIntervals() {
+        IntervalIndex ready = intervals;
+        if (ready != null) return ready;
+        if (Display.getInstance().isEdt()) {
+            Display.getInstance().invokeAndBlock(Database::waitForIntervals);
+        } else {
+            waitForIntervals();
+        }
+        return intervals;
+    }
+
+    private static synchronized void waitForIntervals() {
+        while (intervals == null) {
+            startIntervals();
+            try {
+                Database.class.wait();
+            } catch (InterruptedException e) {
+                Log.e(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build the interval index from a snapshot of all Tasks on a background
+     * thread, which only reads the spans that were not loaded. The index is
+     * subscribed to TaskEvents first, so that a Task changed during the
+     * build is indexed as it is now and not as it was read.
+     */
+    private static synchronized void startIntervals() {
+        if (intervals != null || building != null) return;
+        IntervalIndex index = new IntervalIndex();
+        building = index;
+        TaskEvents.subscribe(index);
+        Display.getInstance().startThread(() -> buildIntervals(index),
+                "IntervalIndex").start();
+    }
+
+    private static void buildIntervals(IntervalIndex index) {
+        // taken after the index was subscribed, so no change falls between
+        TaskRepository.getFullSnapshot().forEach(task -> index.addBuilt(
+                task.hasSpans() ? task :
+                        task.withSpans(readPackedSpans(task.getID()))));
+        synchronized (Database.class) {
+            if (building != index) return; // dropped during the build
+            index.finishBuild();
+            building = null;
+            intervals = index;
+            Database.class.notifyAll();
+        }
+    }
+
+    /**
+     * Drop the interval index after Tasks were written without TaskEvents,
+     * so that it is built again on next use
+     */
+    private static synchronized void dropIntervals() {
+        if (intervals != null) TaskEvents.unsubscribe(intervals);
+        if (building != null) TaskEvents.unsubscribe(building);
+        intervals = null;
+        building = null;
+        // a build started before the drop may have missed the writes
+        Database.class.notifyAll();
+    }
+
+    /**
+     * Fold pending journal entries into the records before the engine is
+     * queried, since the engine does not see the journal
+     */
+    private static void foldJournal() {
+        if (journal != null && !journal.getChangedIDs().isEmpty()) {
+            compactJournal();
+        }
+    }
+
+    /**
+     * Look up Tasks by size in the size index, without reading any records
+     *
+     * @param size The size to look up
+     * @return The ids of the Tasks of the size in ascending order
+     */
+    public static List<Integer> readIDsBySize(String size) {
+        return sizeIndex.get(size);
+    }
+
+    /**
+     * Add up the tracked time of a Task, tag or size over a period from the
+     * daily rollups. The rollups only count spans once they stop, so the
+     * running spans are added from the Tasks in memory.
+     *
+     * The rollups only hold the writes Database has seen, so the totals of
+     * Tasks with unsaved writes are taken out and counted again from the
+     * Tasks in memory.
+     *
+     * @param key     The rollup key (@see Rollups#taskKey, tagKey, sizeKey,
+     *                ALL_KEY)
+     * @param from    The first day of the period
+     * @param to      The last day of the period, inclusive
+     * @param unsaved The Tasks with unsaved writes by id, null if deleted
+     * @param running The Tasks with a running span
+     * @param now     The current time in epoch milliseconds
+     * @return The tracked time in milliseconds
+     */
+    public static long readTotal(String key, LocalDate from, LocalDate to,
+                                 Map<Integer, Task> unsaved,
+                                 List<Task> running, long now) {
+        synchronized (rollups) {
+            long total = rollups.getTotal(key, from, to);
+            for (Map.Entry<Integer, Task> entry : unsaved.entrySet()) {
+                int id = entry.getKey();
+                Task task = entry.getValue();
+                long saved = rollups.getTotal(Rollups.taskKey(id), from, to);
+                if (countsFor(key, id, groupsOf(id))) total -= saved;
+                if (task == null || !countsFor(key, id, groupsOf(task))) {
+                    continue;
+                }
+                // spans that were never loaded did not change
+                synchronized (task) {
+                    total += task.isHydrated() ?
+                            Rollups.sumSpans(task, from, to) : saved;
+                }
+            }
+            for (Task task : running) {
+                if (countsFor(key, task.getID(), groupsOf(task))) {
+                    total += Rollups.sumRunning(task, from, to, now);
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return Whether the time of a Task in groups is added to a rollup key
+     */
+    private static boolean countsFor(String key, int id,
+                                     List<String> groups) {
+        return key.equals(Rollups.ALL_KEY) ||
+                key.equals(Rollups.taskKey(id)) || groups.contains(key);
+    }
+
+    /**
+     * @return Every tag used by at least one Task, sorted
+     */
+    public static List<String> readTags() {
+        return tagIndex.getKeys();
+    }
+
+    /**
+     * @param except The ids of Tasks to leave out
+     * @return Every tag used by at least one other Task, sorted
+     */
+    public static List<String> readTags(Set<Integer> except) {
+        return tagIndex.getKeysExcept(except);
+    }
+
+    /**
+     * @return The ids of all Tasks in Storage in ascending order
+     */
+    public static synchronized List<Integer> readIDs() {
+        return readAllIDs();
+    }
+
+    /**
+     * @return The ids of the Tasks in both segments in ascending order
+     */
+    private static List<Integer> readAllIDs() {
+        List<Integer> ids = new ArrayList<>(readTaskIDs());
+        ids.addAll(readArchivedIDs());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Read a single Task record from Storage
+     *
+     * @param id The id of the Task to be retrieved
+     * @return The Task saved in Storage, or null if it does not exist
+     */
+    public static synchronized Task readTask(int id) {
+        Task task = engine.readTask(id);
+        return journal == null ? task : journal.apply(id, task);
+    }
+
     /**
      * Remove an object from Storage
      *
@@ -129,11 +988,107 @@ public class Database {
      *
      * @param id The id of the Task to be removed
      */
-    private static void deleteTask(int id) {
-        List<Task> tasks = (List) readAll(Task.OBJECT_ID);
-        Predicate<Task> byID = task -> task.getID() != id;
-        tasks = tasks.stream().filter(byID).collect(Collectors.toList());
-        writeAll(Task.OBJECT_ID, (List) tasks);
+    private static synchronized void deleteTask(int id) {
+        boolean removed = removeID(id);
+        untrackTask(id);
+
+        if (journaled) {
+            journal(Collections.singletonList(
+                    TaskJournal.Entry.taskDeleted(id)), null);
+            return;
+        }
+        if (removed) writeManifests();
+        saveIndexes();
+        engine.deleteTask(id);
+    }
+
+    /**
+     * Save a batch of Task writes with a single journal append, so that
+     * after a crash either all of them or none are replayed. Without the
+     * journal mode the batch is folded into the records right away, writing
+     * the manifests and indexes once instead of once per Task.
+     *
+     * @param batch The writes to be saved
+     * @return Whether the batch was saved, if not Storage is unchanged and
+     * the batch can be committed again
+     */
+    static synchronized boolean commit(TaskBatch batch) {
+        if (batch.isEmpty()) return true;
+
+        List<TaskJournal.Entry> entries = new ArrayList<>();
+        List<TaskBatch.Op> applied = new ArrayList<>();
+        List<List<TaskJournal.Entry>> appliedChanges = new ArrayList<>();
+        Set<Integer> live = new HashSet<>();
+        Set<Integer> deleted = new HashSet<>();
+        for (TaskBatch.Op op : batch.ops) {
+            switch (op.kind) {
+                case TaskBatch.ADD:
+                    TaskJournal.Entry put = op.task.drainAsPut();
+                    entries.add(put);
+                    applied.add(op);
+                    appliedChanges.add(Collections.singletonList(put));
+                    live.add(op.id);
+                    deleted.remove(op.id);
+                    break;
+                case TaskBatch.UPDATE:
+                    List<TaskJournal.Entry> changes = op.task.drainChanges();
+                    boolean exists = live.contains(op.id) ||
+                            (!deleted.contains(op.id) && containsID(op.id));
+                    if (!exists) break;
+                    entries.addAll(changes);
+                    applied.add(op);
+                    appliedChanges.add(changes);
+                    break;
+                case TaskBatch.DELETE:
+                    entries.add(TaskJournal.Entry.taskDeleted(op.id));
+                    applied.add(op);
+                    appliedChanges.add(null);
+                    live.remove(op.id);
+                    deleted.add(op.id);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        try {
+            TagDictionary.saveChanges();
+            journal.appendBatch(entries);
+        } catch (IOException e) {
+            Log.e(e);
+            // the Tasks keep their changes for the next try, new Tasks are
+            // serialized again when they are added again
+            for (int i = 0; i < applied.size(); i++) {
+                if (applied.get(i).kind == TaskBatch.UPDATE) {
+                    applied.get(i).task.restoreChanges(appliedChanges.get(i));
+                }
+            }
+            return false;
+        }
+
+        // the manifests and indexes are only changed once the batch is saved
+        for (int i = 0; i < applied.size(); i++) {
+            TaskBatch.Op op = applied.get(i);
+            if (op.kind == TaskBatch.DELETE) {
+                removeID(op.id);
+                untrackTask(op.id);
+            } else {
+                placeTask(op.task);
+                trackTask(op.task, appliedChanges.get(i));
+            }
+        }
+        if (journaled) scheduleCompaction();
+        else compactJournal();
+        engine.sync();
+        return true;
+    }
+
+    /**
+     * Make everything written to the engine survive a crash, e.g. when the
+     * app is stopped
+     */
+    public static synchronized void sync() {
+        if (engine != null) engine.sync();
     }
 
     /**
@@ -141,8 +1096,21 @@ public class Database {
      *
      * @param key The Storage's key of the objects to be removed
      */
-    public static void deleteAll(String key) {
-        db.deleteStorageFile(key);
+    public static synchronized void deleteAll(String key) {
+        if (Task.OBJECT_ID.equals(key)) {
+            if (journal != null) journal.clear();
+            for (Integer id : readAllIDs()) engine.deleteTask(id);
+            engine.deleteObject(Task.INDEX_ID);
+            engine.deleteObject(Task.ARCHIVE_INDEX_ID);
+            tagIndex.delete(engine);
+            sizeIndex.delete(engine);
+            rollups.delete(engine);
+            dropIntervals();
+            taskIDs = null;
+            archivedIDs = null;
+        }
+        engine.deleteObject(key);
+        if (allocators.containsKey(key)) allocators.get(key).reset();
     }
 
 }
@@ -0,0 +1,70 @@
+package org.ecs160.a2.utils;
+
+/**
+ * Hands out increasing ids from blocks reserved in a StorageEngine. Only the
+ * end of the current block (the high-water mark) is saved, once per block,
+ * so ids are generated from memory. The mark is saved before any id of a
+ * block is used, so ids are never reused even if the app is killed
+ * mid-block.
+ */
+public class IDAllocator {
+
+    private final StorageEngine db;
+    private final String key;
+    private final int blockSize;
+
+    // next id to hand out and the end (exclusive) of the reserved block
+    private int next;
+    private int limit;
+    private boolean loaded;
+
+    /**
+     * @param db        The engine the high-water mark is saved in
+     * @param key       The Storage's key of the high-water mark
+     * @param blockSize The number of ids reserved at a time
+     */
+    public IDAllocator(StorageEngine db, String key, int blockSize) {
+        this.db = db;
+        this.key = key;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return The next unused id
+     */
+    public synchronized int next() {
+        load();
+        if (next >= limit) reserve(blockSize);
+        return next++;
+    }
+
+    /**
+     * Reserve at least count more ids past the ones already reserved, e.g.
+     * before creating many Tasks at once
+     *
+     * @param count The number of ids to reserve
+     */
+    public synchronized void reserve(int count) {
+        load();
+        limit = Math.max(limit, next) + count;
+        db.writeObject(key, limit);
+    }
+
+    /**
+     * Read the saved high-water mark on first use, ids below it may already
+     * belong to records
+     */
+    private void load() {
+        if (loaded) return;
+        Integer mark = (Integer) db.readObject(key);
+        next = limit = mark == null ? 0 : mark;
+        loaded = true;
+    }
+
+    /**
+     * Forget the reserved block, e.g. after the high-water mark was deleted
+     */
+    public synchronized void reset() {
+        loaded = false;
+    }
+}
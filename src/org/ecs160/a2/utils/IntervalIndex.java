@@ -0,0 +1,356 @@
+package org.ecs160.a2.utils;
+
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TaskEvent;
+import org.ecs160.a2.models.TaskSnapshot;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * In-memory index of the time spans of all Tasks, for questions about a
+ * time window such as which Tasks ran in it and how much time was tracked.
+ *
+ * The spans are kept in a treap ordered by start, where every node knows the
+ * earliest start, the latest end and the summed length of the stopped spans
+ * below it. A window query skips every subtree that ends before the window
+ * or starts after it. Each of the k matching spans is found in O(log n)
+ * expected, so listing them takes O(k log n) in the worst case, since a
+ * subtree that reaches into the window may still hold spans that do not.
+ * A sum adds a subtree that lies inside the window as a whole, so it only
+ * descends towards the spans crossing an edge of the window and the ones
+ * still running: O(log n) expected for each of those.
+ * A changed Task only moves the spans that differ.
+ *
+ * Once subscribed to TaskEvents, the index follows the changes made through
+ * TaskRepository as their events are delivered.
+ */
+public class IntervalIndex implements TaskEvents.Listener {
+
+    /**
+     * Reads the spans overlapping a window
+     */
+    public interface Visitor {
+        /**
+         * @param end The end in epoch milliseconds, or TimeSpan.RUNNING
+         */
+        void visit(int taskID, long start, long end);
+    }
+
+    // end of a running span in the tree, so it overlaps every later window
+    private static final long OPEN = Long.MAX_VALUE;
+
+    private static class Node {
+        final int taskID;
+        final long start, end;
+        final long seq; // makes equal spans distinct
+        final int priority;
+        long minStart, maxEnd;
+        long total; // summed length of the stopped spans of the subtree
+        Node left, right;
+
+        Node(int taskID, long start, long end, long seq, int priority) {
+            this.taskID = taskID;
+            this.start = start;
+            this.end = end;
+            this.seq = seq;
+            this.priority = priority;
+            this.minStart = start;
+            this.maxEnd = end;
+            this.total = length(start, end);
+        }
+    }
+
+    // nodes of a Task in the order of its spans
+    private static class TaskSpans {
+        Node[] nodes = new Node[4];
+        int count;
+    }
+
+    // ids of Tasks changed by events while the index is built, which the
+    // build skips, null once it is built
+    private Set<Integer> changed = new HashSet<>();
+
+    private final Random random = new Random();
+    private final Map<Integer, TaskSpans> tasks = new HashMap<>();
+    private Node root;
+    private int size;
+    private long seq;
+
+    /**
+     * Index the spans of a Task, replacing only the spans that changed
+     *
+     * @param task The new or changed Task
+     */
+    public void setTask(Task task) {
+        TaskSnapshot current;
+        synchronized (task) {
+            task.getSpanCount(); // loads the spans into the snapshot
+            current = task.snapshot();
+        }
+        setTask(current);
+    }
+
+    /**
+     * Index the spans of a snapshot, replacing only the spans that changed
+     *
+     * @param task The snapshot of a new or changed Task, with its spans
+     */
+    public synchronized void setTask(TaskSnapshot task) {
+        int id = task.getID();
+        TaskSpans indexed = tasks.get(id);
+        if (indexed == null) indexed = new TaskSpans();
+
+        int count = task.getSpanCount();
+        if (indexed.nodes.length < count) {
+            Node[] grown = new Node[count];
+            System.arraycopy(indexed.nodes, 0, grown, 0, indexed.count);
+            indexed.nodes = grown;
+        }
+        for (int i = 0; i < Math.max(count, indexed.count); i++) {
+            Node old = i < indexed.count ? indexed.nodes[i] : null;
+            if (i < count) {
+                long start = task.getSpanStart(i);
+                long end = task.getSpanEnd(i);
+                if (end == TimeSpan.RUNNING) end = OPEN;
+                if (old != null && old.start == start && old.end == end) {
+                    continue;
+                }
+                if (old != null) delete(old);
+                indexed.nodes[i] = insert(id, start, end);
+            } else {
+                delete(old);
+                indexed.nodes[i] = null;
+            }
+        }
+        indexed.count = count;
+
+        if (indexed.count == 0) tasks.remove(id);
+        else tasks.put(id, indexed);
+    }
+
+    /**
+     * Index the spans of a Task again when an event says they changed
+     */
+    @Override
+    public void onTaskEvent(TaskEvent event) {
+        int id = event.getTaskID();
+        synchronized (this) {
+            if (changed != null) changed.add(id);
+        }
+        if (event.getType() == TaskEvent.Type.DELETED) {
+            removeTask(id);
+        } else if (event.hasField(TaskEvent.FIELD_SPANS)) {
+            Task task = TaskRepository.get(id);
+            if (task != null) setTask(task);
+        }
+    }
+
+    /**
+     * Index a Task read while the index is built, unless an event already
+     * indexed its current spans
+     */
+    synchronized void addBuilt(TaskSnapshot task) {
+        if (changed == null || !changed.contains(task.getID())) setTask(task);
+    }
+
+    /**
+     * Stop tracking the Tasks changed during the build
+     */
+    synchronized void finishBuild() {
+        changed = null;
+    }
+
+    /**
+     * Remove all spans of a Task
+     *
+     * @param id The id of the Task
+     */
+    public synchronized void removeTask(int id) {
+        TaskSpans indexed = tasks.remove(id);
+        if (indexed == null) return;
+        for (int i = 0; i < indexed.count; i++) delete(indexed.nodes[i]);
+    }
+
+    /**
+     * @return The number of indexed spans
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visit the spans that overlap a window, ordered by start
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     */
+    public synchronized void forEachBetween(long from, long to,
+                                            Visitor visitor) {
+        visit(root, from, to, visitor);
+    }
+
+    /**
+     * @return The ids of the Tasks with a span overlapping the window in
+     * ascending order
+     */
+    public synchronized List<Integer> getIDsBetween(long from, long to) {
+        List<Integer> ids = new ArrayList<>();
+        visit(root, from, to, (taskID, start, end) -> ids.add(taskID));
+        Collections.sort(ids);
+        List<Integer> unique = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            if (unique.isEmpty() || !unique.get(unique.size() - 1).equals(id)) {
+                unique.add(id);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Add up the tracked time inside a window, each span clipped to it.
+     * Running spans are counted up to now.
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     * @param now  The current time in epoch milliseconds
+     * @return The tracked time in milliseconds
+     */
+    public synchronized long sumBetween(long from, long to, long now) {
+        return sum(root, from, to, now);
+    }
+
+    private static void visit(Node node, long from, long to, Visitor visitor) {
+        if (node == null || node.maxEnd <= from) return;
+        visit(node.left, from, to, visitor);
+        // the right subtree starts even later
+        if (node.start >= to) return;
+        if (node.end > from) {
+            visitor.visit(node.taskID, node.start,
+                    node.end == OPEN ? TimeSpan.RUNNING : node.end);
+        }
+        visit(node.right, from, to, visitor);
+    }
+
+    private static long sum(Node node, long from, long to, long now) {
+        if (node == null || node.maxEnd <= from || node.minStart >= to) {
+            return 0L;
+        }
+        // the whole subtree lies in the window and none of it is running
+        if (node.minStart >= from && node.maxEnd <= to && node.maxEnd != OPEN) {
+            return node.total;
+        }
+        long total = sum(node.left, from, to, now);
+        if (node.start >= to) return total;
+        long end = Math.min(node.end == OPEN ? now : node.end, to);
+        long start = Math.max(node.start, from);
+        if (end > start) total += end - start;
+        return total + sum(node.right, from, to, now);
+    }
+
+    private Node insert(int taskID, long start, long end) {
+        Node node = new Node(taskID, start, end, seq++, random.nextInt());
+        root = insert(root, node);
+        size++;
+        return node;
+    }
+
+    private void delete(Node node) {
+        root = delete(root, node);
+        size--;
+    }
+
+    private static Node insert(Node root, Node node) {
+        if (root == null) return node;
+        if (compare(node, root) < 0) {
+            root.left = insert(root.left, node);
+            if (root.left.priority > root.priority) root = rotateRight(root);
+        } else {
+            root.right = insert(root.right, node);
+            if (root.right.priority > root.priority) root = rotateLeft(root);
+        }
+        update(root);
+        return root;
+    }
+
+    private static Node delete(Node root, Node node) {
+        if (root == null) return null;
+        if (root == node) return merge(root.left, root.right);
+        if (compare(node, root) < 0) root.left = delete(root.left, node);
+        else root.right = delete(root.right, node);
+        update(root);
+        return root;
+    }
+
+    /**
+     * Join two treaps where every node of the first comes before the second
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) return second;
+        if (second == null) return first;
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            update(first);
+            return first;
+        }
+        second.left = merge(first, second.left);
+        update(second);
+        return second;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static void update(Node node) {
+        long maxEnd = node.end;
+        long total = length(node.start, node.end);
+        if (node.left != null) {
+            maxEnd = Math.max(maxEnd, node.left.maxEnd);
+            total += node.left.total;
+        }
+        if (node.right != null) {
+            maxEnd = Math.max(maxEnd, node.right.maxEnd);
+            total += node.right.total;
+        }
+        // nodes are ordered by start, so the leftmost starts first
+        node.minStart = node.left != null ? node.left.minStart : node.start;
+        node.maxEnd = maxEnd;
+        node.total = total;
+    }
+
+    /**
+     * @return The length a stopped span adds to a sum, 0 if it is running
+     * or ends before its start
+     */
+    private static long length(long start, long end) {
+        return end == OPEN ? 0L : Math.max(0L, end - start);
+    }
+
+    private static int compare(Node a, Node b) {
+        if (a.start != b.start) return a.start < b.start ? -1 : 1;
+        if (a.seq != b.seq) return a.seq < b.seq ? -1 : 1;
+        return 0;
+    }
+}
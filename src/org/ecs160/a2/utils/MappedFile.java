@@ -0,0 +1,54 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.system.NativeInterface;
+
+/**
+ * A file mapped into memory, implemented natively on the JavaSE port (the
+ * desktop and the simulator) with an NIO FileChannel. Reads and writes only
+ * copy the requested bytes, never the whole file.
+ */
+public interface MappedFile extends NativeInterface {
+
+    /**
+     * Open and map a file, creating it if it does not exist
+     *
+     * @param path The path of the file in FileSystemStorage
+     * @return Whether the file could be opened
+     */
+    boolean open(String path);
+
+    /**
+     * @return The current length of the file in bytes
+     */
+    long length();
+
+    /**
+     * Grow the file and map the new length
+     *
+     * @param length The new length of the file in bytes
+     */
+    void setLength(long length);
+
+    /**
+     * @param offset The position of the first byte in the file
+     * @param length The number of bytes
+     * @return A copy of the bytes
+     */
+    byte[] read(long offset, int length);
+
+    /**
+     * @param offset The position in the file to write at
+     * @param data   The bytes to be written
+     */
+    void write(long offset, byte[] data);
+
+    /**
+     * Write the mapped changes to the disk
+     */
+    void force();
+
+    /**
+     * Unmap and close the file
+     */
+    void close();
+}
@@ -0,0 +1,529 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Log;
+import com.codename1.io.Util;
+import com.codename1.system.NativeLookup;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves all records in one memory-mapped file of fixed size pages, for the
+ * JavaSE port where large histories are used. Only the pages of the
+ * requested record are read, so loading a Task or a range of its time spans
+ * does not copy the rest of the file onto the heap.
+ *
+ * Page 0 holds the file header. Every other page starts with the number of
+ * the next page of its record (0 for the last page) and the number of bytes
+ * (or spans) used in the page. Time spans are saved as fixed 16 byte start
+ * and end pairs, so a range of spans can be found from the page counts
+ * alone.
+ *
+ * Records are never overwritten in place. A new version is written to free
+ * pages, then its first page is appended to the directory, a log of keys
+ * and first pages (0 for a deleted key) whose last entry per key wins. The
+ * old version's pages are only freed on sync, once the new entry is on the
+ * disk, so a crash at any point leaves either version whole. The log is
+ * compacted the same way once it holds many more entries than keys.
+ */
+public class MappedStorageEngine implements StorageEngine {
+
+    static final String FILE_NAME = "Tasks.map";
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGE_HEADER = 8;
+    private static final int PAGE_DATA = PAGE_SIZE - PAGE_HEADER;
+    private static final int SPAN_SIZE = 16;
+    private static final int SPANS_PER_PAGE = PAGE_DATA / SPAN_SIZE;
+
+    // file header: magic, version, page count, free list, directory.
+    // Version 1 saved the directory as one Hashtable record.
+    private static final int MAGIC = 0x54534B4D;
+    private static final int VERSION = 2;
+
+    // directory entries beyond the number of keys before it is compacted
+    private static final int DIR_SLACK = 256;
+
+    private final MappedFile file;
+    private int pageCount;
+    private int freeHead;
+    private int dirHead;
+    private Hashtable<String, Integer> directory;
+
+    // last page of the directory log and the number of entries in the log
+    private int dirTail;
+    private int dirEntries;
+
+    // first pages of replaced versions, freed on the next sync
+    private final List<Integer> released = new ArrayList<>();
+
+    private MappedStorageEngine(MappedFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the mapped file in the app's home directory
+     *
+     * @return The engine, or null if mapped files are not supported on this
+     * platform or the file cannot be opened
+     */
+    public static MappedStorageEngine open() {
+        MappedFile file = NativeLookup.create(MappedFile.class);
+        if (file == null || !file.isSupported()) return null;
+
+        String path = FileSystemStorage.getInstance().getAppHomePath()
+                + FILE_NAME;
+        if (!file.open(path)) return null;
+
+        MappedStorageEngine engine = new MappedStorageEngine(file);
+        engine.load();
+        return engine;
+    }
+
+    /**
+     * Read the file header and directory, or set up an empty file
+     */
+    private void load() {
+        directory = new Hashtable<>();
+        if (file.length() < PAGE_SIZE || readInt(0) != MAGIC) {
+            file.setLength(PAGE_SIZE * 16L);
+            pageCount = 1;
+            freeHead = 0;
+            dirHead = 0;
+            compactDirectory();
+            sync();
+            return;
+        }
+        pageCount = readInt(8);
+        freeHead = readInt(12);
+        dirHead = readInt(16);
+        if (readInt(4) < 2) {
+            Hashtable<String, Integer> saved =
+                    (Hashtable<String, Integer>) fromBytes(readChain(dirHead));
+            if (saved != null) directory = saved;
+            compactDirectory();
+            sync();
+            return;
+        }
+        if (!readDirectory()) compactDirectory();
+    }
+
+    /**
+     * Replay the directory log
+     *
+     * @return Whether the log was read to its end, if not a write of its
+     * last entry was cut off
+     */
+    private boolean readDirectory() {
+        List<Integer> pages = chainPages(dirHead);
+        dirTail = pages.get(pages.size() - 1);
+        dirEntries = 0;
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readChain(dirHead)));
+        try {
+            while (in.available() > 0) {
+                String key = in.readUTF();
+                int head = in.readInt();
+                if (head == 0) directory.remove(key);
+                else directory.put(key, head);
+                dirEntries++;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void writeHeader() {
+        writeInt(0, MAGIC);
+        writeInt(4, VERSION);
+        writeInt(8, pageCount);
+        writeInt(12, freeHead);
+        writeInt(16, dirHead);
+    }
+
+    /**
+     * Point a key at the first page of a new version of its record, the old
+     * version is freed on the next sync
+     *
+     * @param head The first page, 0 to delete the key
+     */
+    private void swap(String key, int head) {
+        Integer old = head == 0 ? directory.remove(key) :
+                directory.put(key, head);
+        appendDirectory(key, head);
+        if (old != null) released.add(old);
+    }
+
+    /**
+     * Append an entry to the directory log, filling its last page before a
+     * new page is linked. The count of a page is only raised after its bytes
+     * are written.
+     */
+    private void appendDirectory(String key, int head) {
+        byte[] entry = directoryEntry(key, head);
+        int done = 0;
+        while (done < entry.length) {
+            long offset = pageOffset(dirTail);
+            int used = readInt(offset + 4);
+            int n = Math.min(PAGE_DATA - used, entry.length - done);
+            if (n == 0) {
+                int page = allocatePage();
+                writePage(page, 0, 0, new byte[0]);
+                writeInt(offset, page);
+                dirTail = page;
+                continue;
+            }
+            byte[] part = new byte[n];
+            System.arraycopy(entry, done, part, 0, n);
+            file.write(offset + PAGE_HEADER + used, part);
+            writeInt(offset + 4, used + n);
+            done += n;
+        }
+        dirEntries++;
+        if (dirEntries > directory.size() * 2 + DIR_SLACK) compactDirectory();
+    }
+
+    /**
+     * Write the directory as a new log with one entry per key, then switch
+     * the header to it, the old log is freed on the next sync
+     */
+    private void compactDirectory() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Map.Entry<String, Integer> entry : directory.entrySet()) {
+            byte[] data = directoryEntry(entry.getKey(), entry.getValue());
+            bytes.write(data, 0, data.length);
+        }
+        int old = dirHead;
+        List<Integer> pages = writeNewChain(bytes.toByteArray());
+        dirHead = pages.get(0);
+        dirTail = pages.get(pages.size() - 1);
+        dirEntries = directory.size();
+        writeHeader();
+        if (old != 0) released.add(old);
+    }
+
+    private static byte[] directoryEntry(String key, int head) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(key);
+            out.writeInt(head);
+        } catch (IOException e) {
+            Log.e(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String taskKey(int id) {
+        return Task.OBJECT_ID + "_" + id;
+    }
+
+    private static String spansKey(int id) {
+        return Task.SPANS_ID + "_" + id;
+    }
+
+    @Override
+    public synchronized Object readObject(String key) {
+        Integer head = directory.get(key);
+        return head == null ? null : fromBytes(readChain(head));
+    }
+
+    @Override
+    public void writeObject(String key, Object value) {
+        try {
+            writeRecord(key, toBytes(value));
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    @Override
+    public synchronized void deleteObject(String key) {
+        if (directory.containsKey(key)) swap(key, 0);
+    }
+
+    @Override
+    public Task readTask(int id) {
+        return (Task) readObject(taskKey(id));
+    }
+
+    /**
+     * The Task is serialized before locking the file, since serializing
+     * locks the Task
+     */
+    @Override
+    public void writeTask(Task task) {
+        writeObject(taskKey(task.getID()), task);
+    }
+
+    @Override
+    public synchronized void deleteTask(int id) {
+        deleteObject(taskKey(id));
+        deleteObject(spansKey(id));
+    }
+
+    @Override
+    public List<TimeSpan> readTimeSpans(int id) {
+        return readTimeSpans(id, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized List<TimeSpan> readTimeSpans(int id, int from,
+                                                     int count) {
+        List<TimeSpan> spans = new ArrayList<>();
+        Integer head = directory.get(spansKey(id));
+        int page = head == null ? 0 : head;
+
+        // skip whole pages before the range using their counts only
+        while (page != 0 && count > 0) {
+            long offset = pageOffset(page);
+            int used = readInt(offset + 4);
+            if (from >= used) {
+                from -= used;
+            } else {
+                int n = Math.min(used - from, count);
+                byte[] data = file.read(offset + PAGE_HEADER +
+                        (long) from * SPAN_SIZE, n * SPAN_SIZE);
+                readSpans(data, n, spans);
+                count -= n;
+                from = 0;
+            }
+            page = readInt(offset);
+        }
+        return spans;
+    }
+
+    /**
+     * The page counts give the number of spans, so the arrays are sized
+     * before any span is read
+     */
+    @Override
+    public synchronized long[][] readPackedSpans(int id) {
+        Integer head = directory.get(spansKey(id));
+        List<Integer> pages = chainPages(head == null ? 0 : head);
+        int count = 0;
+        for (Integer page : pages) count += readInt(pageOffset(page) + 4);
+
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int i = 0;
+        for (Integer page : pages) {
+            long offset = pageOffset(page);
+            int used = readInt(offset + 4);
+            byte[] data = file.read(offset + PAGE_HEADER, used * SPAN_SIZE);
+            for (int j = 0; j < used; j++, i++) {
+                starts[i] = readLong(data, j * SPAN_SIZE);
+                ends[i] = readLong(data, j * SPAN_SIZE + 8);
+            }
+        }
+        return new long[][]{starts, ends};
+    }
+
+    @Override
+    public synchronized void writeTimeSpans(int id, List<TimeSpan> spans) {
+        int needed = Math.max(1,
+                (spans.size() + SPANS_PER_PAGE - 1) / SPANS_PER_PAGE);
+        List<Integer> pages = new ArrayList<>(needed);
+        resizeChain(pages, needed);
+
+        for (int i = 0; i < needed; i++) {
+            int from = i * SPANS_PER_PAGE;
+            int n = Math.min(SPANS_PER_PAGE, spans.size() - from);
+            int next = i + 1 < needed ? pages.get(i + 1) : 0;
+            writePage(pages.get(i), next, Math.max(n, 0),
+                    spansToBytes(spans, from, Math.max(n, 0)));
+        }
+        swap(spansKey(id), pages.get(0));
+    }
+
+    /**
+     * Write the changes to the disk, then free the replaced versions, which
+     * no saved entry points at anymore
+     */
+    @Override
+    public synchronized void sync() {
+        file.force();
+        if (released.isEmpty()) return;
+        for (Integer head : released) freeChain(head);
+        released.clear();
+        file.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        file.close();
+    }
+
+    private synchronized void writeRecord(String key, byte[] data) {
+        swap(key, writeNewChain(data).get(0));
+    }
+
+    /**
+     * Write data to a chain of newly allocated pages
+     *
+     * @return The pages of the chain in order
+     */
+    private List<Integer> writeNewChain(byte[] data) {
+        int needed = Math.max(1, (data.length + PAGE_DATA - 1) / PAGE_DATA);
+        List<Integer> pages = new ArrayList<>(needed);
+        resizeChain(pages, needed);
+
+        for (int i = 0; i < needed; i++) {
+            int from = i * PAGE_DATA;
+            int n = Math.min(PAGE_DATA, data.length - from);
+            byte[] part = new byte[Math.max(n, 0)];
+            if (n > 0) System.arraycopy(data, from, part, 0, n);
+            int next = i + 1 < needed ? pages.get(i + 1) : 0;
+            writePage(pages.get(i), next, part.length, part);
+        }
+        return pages;
+    }
+
+    private byte[] readChain(int head) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int page = head;
+        while (page != 0) {
+            long offset = pageOffset(page);
+            int used = readInt(offset + 4);
+            byte[] data = file.read(offset + PAGE_HEADER, used);
+            out.write(data, 0, data.length);
+            page = readInt(offset);
+        }
+        return out.toByteArray();
+    }
+
+    private List<Integer> chainPages(int head) {
+        List<Integer> pages = new ArrayList<>();
+        for (int page = head; page != 0; page = readInt(pageOffset(page))) {
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Grow or shrink a chain's list of pages to the needed number, freeing
+     * the pages that are no longer used
+     */
+    private void resizeChain(List<Integer> pages, int needed) {
+        while (pages.size() < needed) pages.add(allocatePage());
+        while (pages.size() > needed) freePage(pages.remove(pages.size() - 1));
+    }
+
+    private void freeChain(int head) {
+        for (Integer page : chainPages(head)) freePage(page);
+    }
+
+    private int allocatePage() {
+        int page;
+        if (freeHead != 0) {
+            page = freeHead;
+            freeHead = readInt(pageOffset(page));
+        } else {
+            page = pageCount++;
+            long needed = pageOffset(pageCount);
+            if (needed > file.length()) {
+                file.setLength(Math.max(needed, file.length() * 2));
+            }
+        }
+        writeHeader();
+        return page;
+    }
+
+    private void freePage(int page) {
+        writeInt(pageOffset(page), freeHead);
+        freeHead = page;
+        writeHeader();
+    }
+
+    private void writePage(int page, int next, int used, byte[] data) {
+        long offset = pageOffset(page);
+        writeInt(offset, next);
+        writeInt(offset + 4, used);
+        if (data.length > 0) file.write(offset + PAGE_HEADER, data);
+    }
+
+    private static long pageOffset(int page) {
+        return (long) page * PAGE_SIZE;
+    }
+
+    private int readInt(long offset) {
+        byte[] b = file.read(offset, 4);
+        return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) |
+                ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (b[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private void writeInt(long offset, int value) {
+        file.write(offset, new byte[]{(byte) (value >>> 24),
+                (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+
+    private static byte[] spansToBytes(List<TimeSpan> spans, int from, int n) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (int i = from; i < from + n; i++) {
+                TimeSpan span = spans.get(i);
+                out.writeLong(TimeUtils.toEpochMilli(span.getStart()));
+                out.writeLong(span.isRunning() ? TimeSpan.RUNNING :
+                        TimeUtils.toEpochMilli(span.getEnd()));
+            }
+        } catch (IOException e) {
+            Log.e(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void readSpans(byte[] data, int n, List<TimeSpan> spans) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            for (int i = 0; i < n; i++) {
+                LocalDateTime start = TimeUtils.fromEpochMilli(in.readLong());
+                long end = in.readLong();
+                spans.add(new TimeSpan(start, end == TimeSpan.RUNNING ? null :
+                        TimeUtils.fromEpochMilli(end)));
+            }
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    private static byte[] toBytes(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Util.writeObject(value, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Object fromBytes(byte[] data) {
+        if (data.length == 0) return null;
+        try {
+            return Util.readObject(new DataInputStream(
+                    new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            Log.e(e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.ecs160.a2.utils;
+
+import org.ecs160.a2.models.Task;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Upgrades all Task records to the current Task and TimeSpan versions by
+ * reading each one from a StorageEngine and writing it to another (or the
+ * same) engine. Only one Task is held in memory at a time, and the position
+ * is saved as it goes so that an interrupted migration resumes where it
+ * stopped instead of starting over.
+ */
+public class Migrator {
+
+    // key of the saved progress in the target engine
+    public static final String PROGRESS_ID = "Migration";
+
+    // plain objects copied as they are when moving to another engine, the
+    // rollups are copied month by month (@see Rollups#copy) and the tag and
+    // size indexes bucket by bucket (@see SecondaryIndex#copy)
+    static final String[] COPIED_KEYS = {Task.INDEX_ID,
+            Task.ARCHIVE_INDEX_ID, Task.COUNTER_ID};
+
+    // number of Tasks migrated between saves of the progress
+    static final int SAVE_EVERY = 50;
+
+    /**
+     * Notified as Tasks are migrated
+     */
+    public interface Listener {
+        void onProgress(int done, int total);
+    }
+
+    private final StorageEngine from;
+    private final StorageEngine to;
+    private final String name;
+
+    /**
+     * @param from The engine to read the records from
+     * @param to   The engine to write the records to, may be from
+     * @param name Identifies the migration, only progress saved by a
+     *             migration with the same name is resumed
+     */
+    public Migrator(StorageEngine from, StorageEngine to, String name) {
+        this.from = from;
+        this.to = to;
+        this.name = name;
+    }
+
+    /**
+     * Migrate all Tasks, resuming from the saved progress if any
+     *
+     * @param listener Notified of the progress, may be null
+     */
+    public void run(Listener listener) {
+        Vector<Integer> ids = new Vector<>();
+        for (String key : new String[]{Task.INDEX_ID, Task.ARCHIVE_INDEX_ID}) {
+            Vector<Integer> segment = (Vector<Integer>) from.readObject(key);
+            if (segment != null) ids.addAll(segment);
+        }
+
+        int start = readProgress();
+        if (start == 0 && from != to) {
+            for (String key : COPIED_KEYS) {
+                Object value = from.readObject(key);
+                if (value != null) to.writeObject(key, value);
+            }
+            Rollups.copy(from, to);
+            SecondaryIndex.copy(Task.TAG_INDEX_ID, from, to);
+            SecondaryIndex.copy(Task.SIZE_INDEX_ID, from, to);
+        }
+
+        int total = ids.size();
+        for (int i = start; i < total; i++) {
+            migrateTask(ids.get(i));
+            if ((i + 1) % SAVE_EVERY == 0 || i + 1 == total) {
+                saveProgress(i + 1);
+                if (listener != null) listener.onProgress(i + 1, total);
+            }
+        }
+        TagDictionary.save(to);
+        to.deleteObject(PROGRESS_ID);
+    }
+
+    /**
+     * Read a Task in whatever version it was saved in and write it back in
+     * the current one
+     *
+     * @param id The id of the Task
+     */
+    private void migrateTask(int id) {
+        Task task = from.readTask(id);
+        if (task == null) return;
+
+        // Tasks before version 3 are read with their time spans, the others
+        // get them here so that their total time is counted again
+        if (!task.isHydrated()) task.restoreTimeSpans(from.readPackedSpans(id));
+        to.writeTask(task);
+        to.writeTimeSpans(id, task.getTimeSpans());
+    }
+
+    /**
+     * @return The number of Tasks already migrated by this migration
+     */
+    private int readProgress() {
+        Hashtable<String, Object> progress =
+                (Hashtable<String, Object>) to.readObject(PROGRESS_ID);
+        if (progress == null || !name.equals(progress.get("name"))) return 0;
+        return (Integer) progress.get("done");
+    }
+
+    /**
+     * Save the progress after the tags the migrated Tasks added to the
+     * dictionary (Tasks before version 5 saved tags as Strings), so that a
+     * resumed migration gives the same tags the same ids
+     */
+    private void saveProgress(int done) {
+        TagDictionary.saveChanges();
+        if (from != to) TagDictionary.save(to);
+        Hashtable<String, Object> progress = new Hashtable<>();
+        progress.put("name", name);
+        progress.put("done", done);
+        to.writeObject(PROGRESS_ID, progress);
+    }
+}
@@ -0,0 +1,365 @@
+package org.ecs160.a2.utils;
+
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Persisted totals of tracked time per day, kept for every Task, for every
+ * tag and size (its groups) and for all Tasks together. A span that crosses
+ * midnight is split between the days it covers, and running spans are only
+ * added once they stop, readers add their running part (@see #sumRunning).
+ * Totals over a period then add up one bucket per day instead of walking
+ * every span.
+ *
+ * The totals are saved as one object per month, so that stopping a Task
+ * only rewrites the month it was stopped in.
+ */
+public class Rollups {
+
+    // key of the list of saved months in the StorageEngine, each month is
+    // saved under this key followed by the month (@see #monthKey)
+    public static final String OBJECT_ID = "Rollups";
+
+    // rollup key of the time of all Tasks
+    public static final String ALL_KEY = "all";
+
+    // milliseconds by local epoch day, by rollup key, by month
+    private Hashtable<String, Hashtable<String, Hashtable<Long, Long>>>
+            months = new Hashtable<>();
+
+    // months changed since they were saved
+    private final Set<String> dirty = new HashSet<>();
+
+    // whether months were added or removed since the list was saved
+    private boolean listChanged;
+
+    /**
+     * @return The rollup key of a Task
+     */
+    public static String taskKey(int id) {
+        return "task:" + id;
+    }
+
+    /**
+     * @return The rollup key of a tag
+     */
+    public static String tagKey(String tag) {
+        return "tag:" + tag;
+    }
+
+    /**
+     * @return The rollup key of a size
+     */
+    public static String sizeKey(String size) {
+        return "size:" + size;
+    }
+
+    /**
+     * Read the rollups from an engine
+     *
+     * @return Whether the rollups were saved, if not they are left empty
+     */
+    public synchronized boolean load(StorageEngine engine) {
+        months = new Hashtable<>();
+        dirty.clear();
+        listChanged = false;
+        // rollups saved before they were split by month are rebuilt
+        Object list = engine.readObject(OBJECT_ID);
+        if (!(list instanceof Vector)) return false;
+
+        for (String month : (Vector<String>) list) {
+            Hashtable<String, Hashtable<Long, Long>> saved =
+                    (Hashtable<String, Hashtable<Long, Long>>)
+                            engine.readObject(monthKey(month));
+            if (saved == null) {
+                months = new Hashtable<>();
+                return false;
+            }
+            months.put(month, saved);
+        }
+        return true;
+    }
+
+    /**
+     * Write the months that changed since they were saved to an engine
+     */
+    public synchronized void save(StorageEngine engine) {
+        for (String month : dirty) {
+            Hashtable<String, Hashtable<Long, Long>> totals = months.get(month);
+            if (totals == null) engine.deleteObject(monthKey(month));
+            else engine.writeObject(monthKey(month), totals);
+        }
+        dirty.clear();
+        if (listChanged) {
+            engine.writeObject(OBJECT_ID, new Vector<>(months.keySet()));
+            listChanged = false;
+        }
+    }
+
+    /**
+     * Remove the saved rollups from an engine and empty them
+     */
+    public synchronized void delete(StorageEngine engine) {
+        Object list = engine.readObject(OBJECT_ID);
+        if (list instanceof Vector) {
+            for (String month : (Vector<String>) list) {
+                engine.deleteObject(monthKey(month));
+            }
+        }
+        engine.deleteObject(OBJECT_ID);
+        months = new Hashtable<>();
+        dirty.clear();
+        listChanged = false;
+    }
+
+    /**
+     * Copy the saved rollups from one engine to another
+     */
+    public static void copy(StorageEngine from, StorageEngine to) {
+        Object list = from.readObject(OBJECT_ID);
+        if (!(list instanceof Vector)) return;
+        for (String month : (Vector<String>) list) {
+            Object totals = from.readObject(monthKey(month));
+            if (totals != null) to.writeObject(monthKey(month), totals);
+        }
+        to.writeObject(OBJECT_ID, list);
+    }
+
+    /**
+     * Empty the rollups
+     */
+    public synchronized void clear() {
+        if (months.isEmpty()) return;
+        dirty.addAll(months.keySet());
+        listChanged = true;
+        months = new Hashtable<>();
+    }
+
+    /**
+     * Add a stopped span to a Task, its groups and all Tasks
+     *
+     * @param id     The id of the Task
+     * @param groups The rollup keys of the Task's tags and size
+     * @param start  The start of the span in epoch milliseconds
+     * @param end    The end of the span in epoch milliseconds
+     */
+    public synchronized void addSpan(int id, List<String> groups, long start,
+                                     long end) {
+        while (start < end) {
+            LocalDate day = TimeUtils.fromEpochMilli(start).toLocalDate();
+            long midnight = TimeUtils.toEpochMilli(
+                    day.plusDays(1).atStartOfDay());
+            long part = Math.min(end, midnight) - start;
+            add(taskKey(id), day.toEpochDay(), part);
+            add(ALL_KEY, day.toEpochDay(), part);
+            for (String group : groups) add(group, day.toEpochDay(), part);
+            start = midnight;
+        }
+    }
+    /**
+     * Replace all totals of a Task, e.g. after its spans were edited
+     *
+     * @param id        The id of the Task
+     * @param oldGroups The keys the Task's totals were added to
+     * @param groups    The keys of the Task's current tags and size
+     * @param spans     All spans of the Task
+     */
+    public synchronized void setTask(int id, List<String> oldGroups,
+                                     List<String> groups,
+                                     List<TimeSpan> spans) {
+        removeTask(id, oldGroups);
+        for (TimeSpan span : spans) {
+            if (span.isRunning()) continue;
+            addSpan(id, groups, TimeUtils.toEpochMilli(span.getStart()),
+                    TimeUtils.toEpochMilli(span.getEnd()));
+        }
+    }
+
+    /**
+     * Move a Task's totals to the groups of its current tags and size
+     *
+     * @param id        The id of the Task
+     * @param oldGroups The keys the Task's totals were added to
+     * @param groups    The keys of the Task's current tags and size
+     */
+    public synchronized void regroup(int id, List<String> oldGroups,
+                                     List<String> groups) {
+        if (oldGroups.equals(groups)) return;
+        for (Hashtable<String, Hashtable<Long, Long>> totals :
+                new ArrayList<>(months.values())) {
+            Hashtable<Long, Long> own = totals.get(taskKey(id));
+            if (own == null) continue;
+            for (Map.Entry<Long, Long> bucket : own.entrySet()) {
+                for (String group : oldGroups) {
+                    if (!groups.contains(group)) {
+                        add(group, bucket.getKey(), -bucket.getValue());
+                    }
+                }
+                for (String group : groups) {
+                    if (!oldGroups.contains(group)) {
+                        add(group, bucket.getKey(), bucket.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a Task's totals from itself, its groups and all Tasks
+     *
+     * @param id     The id of the Task
+     * @param groups The keys the Task's totals were added to
+     */
+    public synchronized void removeTask(int id, List<String> groups) {
+        for (Hashtable<String, Hashtable<Long, Long>> totals :
+                new ArrayList<>(months.values())) {
+            Hashtable<Long, Long> own = totals.get(taskKey(id));
+            if (own == null) continue;
+            for (Map.Entry<Long, Long> bucket :
+                    new ArrayList<>(own.entrySet())) {
+                long day = bucket.getKey();
+                long ms = bucket.getValue();
+                add(taskKey(id), day, -ms);
+                add(ALL_KEY, day, -ms);
+                for (String group : groups) add(group, day, -ms);
+            }
+        }
+    }
+
+    /**
+     * Add up the totals of a key over a period, reading only the months
+     * of the period
+     *
+     * @param key  The rollup key of a Task, tag or size, or ALL_KEY
+     * @param from The first day of the period
+     * @param to   The last day of the period, inclusive
+     * @return The tracked time in milliseconds
+     */
+    public synchronized long getTotal(String key, LocalDate from,
+                                      LocalDate to) {
+        long total = 0L;
+        long first = from.toEpochDay();
+        long last = to.toEpochDay();
+        for (LocalDate month = from.withDayOfMonth(1); !month.isAfter(to);
+             month = month.plusMonths(1)) {
+            Hashtable<String, Hashtable<Long, Long>> totals =
+                    months.get(monthOf(month));
+            Hashtable<Long, Long> days = totals == null ? null :
+                    totals.get(key);
+            if (days == null) continue;
+            for (Map.Entry<Long, Long> bucket : days.entrySet()) {
+                long day = bucket.getKey();
+                if (day >= first && day <= last) total += bucket.getValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Add up the stopped spans of a Task over a period the way the rollups
+     * count them, for a Task whose changes were not added yet
+     *
+     * @param task The Task
+     * @param from The first day of the period
+     * @param to   The last day of the period, inclusive
+     * @return The tracked time in milliseconds
+     */
+    public static long sumSpans(Task task, LocalDate from, LocalDate to) {
+        long first = TimeUtils.toEpochMilli(from.atStartOfDay());
+        long last = TimeUtils.toEpochMilli(to.plusDays(1).atStartOfDay());
+        long total = 0L;
+        synchronized (task) {
+            for (int i = 0; i < task.getSpanCount(); i++) {
+                long end = task.getSpanEnd(i);
+                if (end == TimeSpan.RUNNING) continue;
+                long start = Math.max(task.getSpanStart(i), first);
+                end = Math.min(end, last);
+                if (end > start) total += end - start;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Add up the part of a Task's running span in a period, which the
+     * rollups do not hold until it stops
+     *
+     * @param task The Task
+     * @param from The first day of the period
+     * @param to   The last day of the period, inclusive
+     * @param now  The current time in epoch milliseconds
+     * @return The running time in the period in milliseconds
+     */
+    public static long sumRunning(Task task, LocalDate from, LocalDate to,
+                                  long now) {
+        long first = TimeUtils.toEpochMilli(from.atStartOfDay());
+        long last = TimeUtils.toEpochMilli(to.plusDays(1).atStartOfDay());
+        synchronized (task) {
+            int count = task.getSpanCount();
+            if (count == 0 || task.getSpanEnd(count - 1) != TimeSpan.RUNNING) {
+                return 0L;
+            }
+            long start = Math.max(task.getSpanStart(count - 1), first);
+            long end = Math.min(now, last);
+            return Math.max(0L, end - start);
+        }
+    }
+
+    /**
+     * @return The rollup keys of a Task's tags and size
+     */
+    public static List<String> groupsOf(List<String> tags, List<String> sizes) {
+        List<String> groups = new ArrayList<>();
+        for (String tag : tags) {
+            if (!groups.contains(tagKey(tag))) groups.add(tagKey(tag));
+        }
+        for (String size : sizes) groups.add(sizeKey(size));
+        return groups;
+    }
+
+    /**
+     * @return The month of a day, e.g. "2021-03"
+     */
+    private static String monthOf(LocalDate day) {
+        int month = day.getMonthValue();
+        return day.getYear() + (month < 10 ? "-0" : "-") + month;
+    }
+
+    /**
+     * @return The key of a month's totals in the StorageEngine
+     */
+    private static String monthKey(String month) {
+        return OBJECT_ID + "-" + month;
+    }
+
+    private void add(String key, long day, long ms) {
+        if (ms == 0) return;
+        String month = monthOf(LocalDate.ofEpochDay(day));
+        Hashtable<String, Hashtable<Long, Long>> totals = months.get(month);
+        if (totals == null) {
+            months.put(month, totals = new Hashtable<>());
+            listChanged = true;
+        }
+        Hashtable<Long, Long> days = totals.get(key);
+        if (days == null) totals.put(key, days = new Hashtable<>());
+        Long current = days.get(day);
+        long total = (current == null ? 0L : current) + ms;
+        if (total == 0) days.remove(day);
+        else days.put(day, total);
+        if (days.isEmpty()) totals.remove(key);
+        if (totals.isEmpty()) {
+            months.remove(month);
+            listChanged = true;
+        }
+        dirty.add(month);
+    }
+}
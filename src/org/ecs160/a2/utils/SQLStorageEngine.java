@@ -0,0 +1,332 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.db.Cursor;
+import com.codename1.db.Row;
+import com.codename1.io.Log;
+import com.codename1.io.Util;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Saves all records in the CN1 SQLite database. Task headers, their time
+ * spans and their tags each have a table, so that tag and time window
+ * lookups run in SQL. Spans are indexed by their start and end, and a
+ * running span has no end.
+ */
+public class SQLStorageEngine implements StorageEngine, TaskQueries {
+
+    static final String DB_NAME = "Tasks.db";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS objects (key TEXT PRIMARY KEY, " +
+                    "value BLOB)",
+            "CREATE TABLE IF NOT EXISTS tasks (id INTEGER PRIMARY KEY, " +
+                    "title TEXT, size TEXT, archived INTEGER, record BLOB)",
+            "CREATE TABLE IF NOT EXISTS spans (task_id INTEGER, " +
+                    "seq INTEGER, start_time INTEGER, end_time INTEGER, " +
+                    "PRIMARY KEY (task_id, seq))",
+            "CREATE TABLE IF NOT EXISTS tags (task_id INTEGER, tag TEXT, " +
+                    "PRIMARY KEY (task_id, tag))",
+            "CREATE INDEX IF NOT EXISTS spans_start ON spans (start_time)",
+            "CREATE INDEX IF NOT EXISTS spans_end ON spans (end_time)",
+            "CREATE INDEX IF NOT EXISTS tags_tag ON tags (tag)"
+    };
+
+    private final com.codename1.db.Database db;
+
+    private SQLStorageEngine(com.codename1.db.Database db) {
+        this.db = db;
+    }
+
+    /**
+     * Open the database and create its tables if needed
+     *
+     * @return The engine, or null if the database cannot be opened
+     */
+    public static SQLStorageEngine open() {
+        try {
+            com.codename1.db.Database db =
+                    com.codename1.db.Database.openOrCreate(DB_NAME);
+            if (db == null) return null;
+            for (String statement : SCHEMA) db.execute(statement);
+            return new SQLStorageEngine(db);
+        } catch (IOException e) {
+            Log.e(e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized Object readObject(String key) {
+        byte[] value = queryBlob("SELECT value FROM objects WHERE key = ?",
+                key);
+        return value == null ? null : fromBytes(value);
+    }
+
+    @Override
+    public void writeObject(String key, Object value) {
+        byte[] bytes = toBytes(value);
+        if (bytes == null) return;
+        synchronized (this) {
+            execute("INSERT OR REPLACE INTO objects (key, value) " +
+                    "VALUES (?, ?)", key, bytes);
+        }
+    }
+
+    @Override
+    public synchronized void deleteObject(String key) {
+        execute("DELETE FROM objects WHERE key = ?", key);
+    }
+
+    @Override
+    public synchronized Task readTask(int id) {
+        byte[] record = queryBlob("SELECT record FROM tasks WHERE id = ?",
+                id);
+        return record == null ? null : (Task) fromBytes(record);
+    }
+
+    /**
+     * The Task is serialized before locking the database, since serializing
+     * locks the Task. Its tags are rewritten with the header.
+     */
+    @Override
+    public void writeTask(Task task) {
+        byte[] record = toBytes(task);
+        if (record == null) return;
+        List<String> tags = task.getTags();
+
+        synchronized (this) {
+            try {
+                db.beginTransaction();
+                db.execute("INSERT OR REPLACE INTO tasks (id, title, size, " +
+                        "archived, record) VALUES (?, ?, ?, ?, ?)",
+                        new Object[]{task.getID(), task.getTitle(),
+                                task.getSize(), task.isArchived() ? 1 : 0,
+                                record});
+                db.execute("DELETE FROM tags WHERE task_id = ?",
+                        new Object[]{task.getID()});
+                for (String tag : tags) {
+                    db.execute("INSERT OR IGNORE INTO tags (task_id, tag) " +
+                            "VALUES (?, ?)", new Object[]{task.getID(), tag});
+                }
+                db.commitTransaction();
+            } catch (IOException e) {
+                Log.e(e);
+                rollback();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deleteTask(int id) {
+        try {
+            db.beginTransaction();
+            for (String table : new String[]{"tasks", "spans", "tags"}) {
+                String column = table.equals("tasks") ? "id" : "task_id";
+                db.execute("DELETE FROM " + table + " WHERE " + column +
+                        " = ?", new Object[]{id});
+            }
+            db.commitTransaction();
+        } catch (IOException e) {
+            Log.e(e);
+            rollback();
+        }
+    }
+
+    @Override
+    public List<TimeSpan> readTimeSpans(int id) {
+        return readTimeSpans(id, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized List<TimeSpan> readTimeSpans(int id, int from,
+                                                     int count) {
+        List<TimeSpan> spans = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.executeQuery("SELECT start_time, end_time, " +
+                    "end_time IS NULL FROM spans WHERE task_id = ? " +
+                    "ORDER BY seq LIMIT ? OFFSET ?",
+                    new Object[]{id, count, from});
+            while (cursor.next()) {
+                Row row = cursor.getRow();
+                spans.add(new TimeSpan(TimeUtils.fromEpochMilli(row.getLong(0)),
+                        row.getInteger(2) == 1 ? null :
+                                TimeUtils.fromEpochMilli(row.getLong(1))));
+            }
+        } catch (IOException e) {
+            Log.e(e);
+        } finally {
+            close(cursor);
+        }
+        return spans;
+    }
+
+    @Override
+    public synchronized long[][] readPackedSpans(int id) {
+        long[] starts = new long[16];
+        long[] ends = new long[16];
+        int count = 0;
+        Cursor cursor = null;
+        try {
+            cursor = db.executeQuery("SELECT start_time, end_time, " +
+                    "end_time IS NULL FROM spans WHERE task_id = ? " +
+                    "ORDER BY seq", new Object[]{id});
+            while (cursor.next()) {
+                Row row = cursor.getRow();
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = row.getLong(0);
+                ends[count] = row.getInteger(2) == 1 ? TimeSpan.RUNNING :
+                        row.getLong(1);
+                count++;
+            }
+        } catch (IOException e) {
+            Log.e(e);
+        } finally {
+            close(cursor);
+        }
+        return new long[][]{Arrays.copyOf(starts, count),
+                Arrays.copyOf(ends, count)};
+    }
+
+    @Override
+    public synchronized void writeTimeSpans(int id, List<TimeSpan> spans) {
+        try {
+            db.beginTransaction();
+            db.execute("DELETE FROM spans WHERE task_id = ?",
+                    new Object[]{id});
+            for (int i = 0; i < spans.size(); i++) {
+                TimeSpan span = spans.get(i);
+                db.execute("INSERT INTO spans (task_id, seq, start_time, " +
+                        "end_time) VALUES (?, ?, ?, ?)", new Object[]{id, i,
+                        TimeUtils.toEpochMilli(span.getStart()),
+                        span.isRunning() ? null :
+                                TimeUtils.toEpochMilli(span.getEnd())});
+            }
+            db.commitTransaction();
+        } catch (IOException e) {
+            Log.e(e);
+            rollback();
+        }
+    }
+
+    @Override
+    public synchronized List<Integer> findByTag(String tag) {
+        return queryIDs("SELECT task_id FROM tags WHERE tag = ? " +
+                "ORDER BY task_id", tag);
+    }
+
+    @Override
+    public synchronized List<Integer> findBetween(long from, long to) {
+        return queryIDs("SELECT DISTINCT task_id FROM spans " +
+                "WHERE start_time < ? AND (end_time IS NULL OR end_time > ?) " +
+                "ORDER BY task_id", to, from);
+    }
+
+    /**
+     * Close the database
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            db.close();
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    private void execute(String sql, Object... params) {
+        try {
+            db.execute(sql, params);
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    private byte[] queryBlob(String sql, Object... params) {
+        Cursor cursor = null;
+        try {
+            cursor = db.executeQuery(sql, params);
+            return cursor.next() ? cursor.getRow().getBlob(0) : null;
+        } catch (IOException e) {
+            Log.e(e);
+            return null;
+        } finally {
+            close(cursor);
+        }
+    }
+
+    private List<Integer> queryIDs(String sql, Object... params) {
+        List<Integer> ids = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.executeQuery(sql, params);
+            while (cursor.next()) ids.add(cursor.getRow().getInteger(0));
+        } catch (IOException e) {
+            Log.e(e);
+        } finally {
+            close(cursor);
+        }
+        return ids;
+    }
+
+    /**
+     * Every write is committed in its own transaction
+     */
+    @Override
+    public void sync() {
+    }
+
+    private void rollback() {
+        try {
+            db.rollbackTransaction();
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    private static void close(Cursor cursor) {
+        if (cursor == null) return;
+        try {
+            cursor.close();
+        } catch (IOException e) {
+            Log.e(e);
+        }
+    }
+
+    private static byte[] toBytes(Object value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            Util.writeObject(value, out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            Log.e(e);
+            return null;
+        }
+    }
+
+    private static Object fromBytes(byte[] data) {
+        if (data.length == 0) return null;
+        try {
+            return Util.readObject(new DataInputStream(
+                    new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            Log.e(e);
+            return null;
+        }
+    }
+}
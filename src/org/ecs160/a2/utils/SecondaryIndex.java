@@ -0,0 +1,307 @@
+package org.ecs160.a2.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Persisted index from a key, such as a tag or a size, to the ids of the
+ * Tasks that have it. The reverse mapping from ids to their keys is only
+ * kept in memory, so a changed Task can be reindexed without knowing its
+ * old values.
+ *
+ * The keys are spread over a fixed number of buckets by their hash, each
+ * saved as its own object, so that a changed Task only rewrites the buckets
+ * of the keys it gained or lost.
+ */
+public class SecondaryIndex {
+
+    // number of buckets the keys are saved in
+    static final int BUCKETS = 16;
+
+    // key of the list of saved buckets in the StorageEngine, each bucket is
+    // saved under this key followed by its number (@see #bucketKey)
+    private final String storageKey;
+
+    // ids by key, each in ascending order
+    private Hashtable<String, Vector<Integer>> ids = new Hashtable<>();
+
+    // keys by id
+    private final Map<Integer, List<String>> keys = new HashMap<>();
+
+    // buckets changed since they were saved
+    private final Set<Integer> dirty = new HashSet<>();
+
+    // buckets in the saved list of buckets
+    private final Set<Integer> saved = new HashSet<>();
+
+    /**
+     * @param storageKey The key the index is saved under
+     */
+    public SecondaryIndex(String storageKey) {
+        this.storageKey = storageKey;
+    }
+
+    /**
+     * Read the index from an engine
+     *
+     * @return Whether the index was saved, if not it is left empty
+     */
+    public synchronized boolean load(StorageEngine engine) {
+        clear();
+        dirty.clear();
+        saved.clear();
+        Object list = engine.readObject(storageKey);
+        if (list instanceof Hashtable) {
+            // saved whole before it was split into buckets
+            ids = (Hashtable<String, Vector<Integer>>) list;
+            markAllDirty();
+        } else if (list instanceof Vector) {
+            saved.addAll((Vector<Integer>) list);
+            for (Integer bucket : (Vector<Integer>) list) {
+                Hashtable<String, Vector<Integer>> part =
+                        (Hashtable<String, Vector<Integer>>)
+                                engine.readObject(bucketKey(bucket));
+                if (part == null) {
+                    ids = new Hashtable<>();
+                    return false;
+                }
+                ids.putAll(part);
+            }
+        } else {
+            return false;
+        }
+
+        for (Map.Entry<String, Vector<Integer>> entry : ids.entrySet()) {
+            for (Integer id : entry.getValue()) {
+                List<String> of = keys.get(id);
+                if (of == null) keys.put(id, of = new ArrayList<>());
+                of.add(entry.getKey());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the buckets that changed since they were saved to an engine,
+     * then the list of buckets if buckets were added or emptied
+     */
+    public synchronized void save(StorageEngine engine) {
+        if (dirty.isEmpty()) return;
+        Hashtable<Integer, Hashtable<String, Vector<Integer>>> parts =
+                split();
+        for (Integer bucket : dirty) {
+            Hashtable<String, Vector<Integer>> part = parts.get(bucket);
+            if (part == null) engine.deleteObject(bucketKey(bucket));
+            else engine.writeObject(bucketKey(bucket), part);
+        }
+        if (!saved.equals(parts.keySet())) {
+            engine.writeObject(storageKey, new Vector<>(parts.keySet()));
+            saved.clear();
+            saved.addAll(parts.keySet());
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Remove the saved index from an engine and empty it
+     */
+    public synchronized void delete(StorageEngine engine) {
+        Object list = engine.readObject(storageKey);
+        if (list instanceof Vector) {
+            for (Integer bucket : (Vector<Integer>) list) {
+                engine.deleteObject(bucketKey(bucket));
+            }
+        }
+        engine.deleteObject(storageKey);
+        clear();
+        dirty.clear();
+        saved.clear();
+    }
+
+    /**
+     * Copy a saved index from one engine to another
+     *
+     * @param storageKey The key the index is saved under
+     */
+    public static void copy(String storageKey, StorageEngine from,
+                            StorageEngine to) {
+        Object list = from.readObject(storageKey);
+        if (list == null) return;
+        if (list instanceof Vector) {
+            for (Integer bucket : (Vector<Integer>) list) {
+                String key = storageKey + "-" + bucket;
+                Object part = from.readObject(key);
+                if (part != null) to.writeObject(key, part);
+            }
+        }
+        to.writeObject(storageKey, list);
+    }
+
+    /**
+     * Set the keys of a Task, only the keys that were added or removed are
+     * changed
+     *
+     * @param id      The id of the Task
+     * @param newKeys All keys of the Task
+     */
+    public synchronized void put(int id, Collection<String> newKeys) {
+        List<String> old = keys.get(id);
+        List<String> current = new ArrayList<>(new LinkedHashSet<>(newKeys));
+        if (old != null && old.equals(current)) return;
+
+        if (old != null) {
+            for (String key : old) {
+                if (!current.contains(key)) removeID(key, id);
+            }
+        }
+        for (String key : current) {
+            if (old == null || !old.contains(key)) addID(key, id);
+        }
+        if (current.isEmpty()) keys.remove(id);
+        else keys.put(id, current);
+    }
+
+    /**
+     * Remove a Task from the index
+     *
+     * @param id The id of the Task
+     */
+    public synchronized void remove(int id) {
+        List<String> old = keys.remove(id);
+        if (old == null) return;
+        for (String key : old) removeID(key, id);
+    }
+
+    /**
+     * @param key The key to look up
+     * @return The ids of the Tasks with the key in ascending order
+     */
+    public synchronized List<Integer> get(String key) {
+        Vector<Integer> found = ids.get(key);
+        return found == null ? new ArrayList<>() : new ArrayList<>(found);
+    }
+
+    /**
+     * @param id The id of the Task
+     * @return The keys the Task is indexed under
+     */
+    public synchronized List<String> getKeysOf(int id) {
+        List<String> of = keys.get(id);
+        return of == null ? new ArrayList<>() : new ArrayList<>(of);
+    }
+
+    /**
+     * @return All keys that at least one Task has, sorted
+     */
+    public synchronized List<String> getKeys() {
+        List<String> all = new ArrayList<>(ids.keySet());
+        Collections.sort(all);
+        return all;
+    }
+
+    /**
+     * @param except The ids of Tasks to leave out
+     * @return The keys that at least one other Task has, sorted
+     */
+    public synchronized List<String> getKeysExcept(Set<Integer> except) {
+        List<String> found = new ArrayList<>();
+        for (Map.Entry<String, Vector<Integer>> entry : ids.entrySet()) {
+            for (Integer id : entry.getValue()) {
+                if (except.contains(id)) continue;
+                found.add(entry.getKey());
+                break;
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    /**
+     * Empty the index
+     */
+    public synchronized void clear() {
+        markAllDirty();
+        ids = new Hashtable<>();
+        keys.clear();
+    }
+
+    private void addID(String key, int id) {
+        Vector<Integer> of = ids.get(key);
+        if (of == null) ids.put(key, of = new Vector<>());
+        if (insertSorted(of, id)) dirty.add(bucketOf(key));
+    }
+
+    private void removeID(String key, int id) {
+        Vector<Integer> of = ids.get(key);
+        if (of == null || !removeSorted(of, id)) return;
+        if (of.isEmpty()) ids.remove(key);
+        dirty.add(bucketOf(key));
+    }
+
+    private void markAllDirty() {
+        for (String key : ids.keySet()) dirty.add(bucketOf(key));
+    }
+
+    /**
+     * @return The keys and their ids by bucket, without empty buckets
+     */
+    private Hashtable<Integer, Hashtable<String, Vector<Integer>>> split() {
+        Hashtable<Integer, Hashtable<String, Vector<Integer>>> parts =
+                new Hashtable<>();
+        for (Map.Entry<String, Vector<Integer>> entry : ids.entrySet()) {
+            int bucket = bucketOf(entry.getKey());
+            Hashtable<String, Vector<Integer>> part = parts.get(bucket);
+            if (part == null) parts.put(bucket, part = new Hashtable<>());
+            part.put(entry.getKey(), entry.getValue());
+        }
+        return parts;
+    }
+
+    /**
+     * @return The bucket a key is saved in, String hashes are the same on
+     * every platform
+     */
+    static int bucketOf(String key) {
+        return (key.hashCode() & 0x7FFFFFFF) % BUCKETS;
+    }
+
+    /**
+     * @return The key of a bucket in the StorageEngine
+     */
+    private String bucketKey(int bucket) {
+        return storageKey + "-" + bucket;
+    }
+
+    /**
+     * Insert an id into ids kept in ascending order
+     *
+     * @return Whether the id was not there yet
+     */
+    static boolean insertSorted(Vector<Integer> ids, int id) {
+        int i = Collections.binarySearch(ids, id);
+        if (i >= 0) return false;
+        ids.add(-i - 1, id);
+        return true;
+    }
+
+    /**
+     * Remove an id from ids kept in ascending order
+     *
+     * @return Whether the id was there
+     */
+    static boolean removeSorted(Vector<Integer> ids, int id) {
+        int i = Collections.binarySearch(ids, id);
+        if (i < 0) return false;
+        ids.remove(i);
+        return true;
+    }
+}
@@ -0,0 +1,261 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.Log;
+import com.codename1.io.Preferences;
+import com.codename1.ui.Display;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TaskEvent;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges runs of short pauses out of Tasks' time spans. Two stopped spans
+ * on the same day are merged when the gap between them is shorter than a
+ * threshold.
+ *
+ * A merged span starts at the start of its first span and lasts as long as
+ * all of its spans together, so the total time stays exact. Its end moves
+ * earlier by the sum of the merged gaps, which is kept below the threshold,
+ * so the end of a merged span is less than the threshold earlier than the
+ * end of its last span. Spans are never merged across midnight, so the
+ * time of every day stays exact too. Running spans are never merged.
+ *
+ * A Task is also held to a maximum number of spans, by merging its
+ * smallest gaps of a day whatever their length. Such a Task keeps its total
+ * time per day, but its spans no longer show when it ran.
+ *
+ * Tasks are compacted as their spans change, only once they have more spans
+ * than a limit. The EDT only queues them, they are compacted on a background
+ * thread and saved together in one TaskBatch.
+ */
+public class SpanCompactor implements TaskEvents.Listener {
+
+    // Preferences of the compaction
+    public static final String ENABLED_PREF = "SpanCompactor.enabled";
+    public static final String MAX_GAP_PREF = "SpanCompactor.maxGap";
+    public static final String LIMIT_PREF = "SpanCompactor.limit";
+    public static final String MAX_SPANS_PREF = "SpanCompactor.maxSpans";
+
+    // number of spans a Task gains before it is compacted again
+    static final int RECHECK_AFTER = 50;
+
+    private final long maxGap;
+    private final int limit;
+    private final int maxSpans;
+
+    // span count of Tasks after they were last compacted or queued
+    private final Map<Integer, Integer> checked = new HashMap<>();
+
+    // ids of the Tasks waiting to be compacted, in the order they were queued
+    private final List<Integer> pending = new ArrayList<>();
+
+    // whether the background thread is compacting the pending Tasks
+    private boolean running;
+
+    // spans merged away since the app started
+    private long reclaimed;
+
+    private SpanCompactor(long maxGap, int limit, int maxSpans) {
+        this.maxGap = maxGap;
+        this.limit = limit;
+        this.maxSpans = maxSpans;
+    }
+
+    /**
+     * Compact Tasks from now on as their spans change, with the configured
+     * threshold, limit and maximum, unless compaction is disabled
+     */
+    public static void init() {
+        if (!Preferences.get(ENABLED_PREF, true)) return;
+        TaskEvents.subscribe(new SpanCompactor(
+                Preferences.get(MAX_GAP_PREF, 60 * 1000L),
+                Preferences.get(LIMIT_PREF, 500),
+                Preferences.get(MAX_SPANS_PREF, 1000)));
+    }
+
+    /**
+     * Queue a Task whose spans grew past the limit
+     */
+    @Override
+    public void onTaskEvent(TaskEvent event) {
+        int id = event.getTaskID();
+        if (event.getType() == TaskEvent.Type.DELETED) {
+            synchronized (this) {
+                checked.remove(id);
+                pending.remove((Integer) id);
+            }
+            return;
+        }
+        if (!event.hasField(TaskEvent.FIELD_SPANS)) return;
+        Task task = TaskRepository.get(id);
+        // a Task whose spans changed has them loaded
+        if (task == null || !task.isHydrated()) return;
+
+        int count = task.getSpanCount();
+        synchronized (this) {
+            Integer last = checked.get(id);
+            if (count <= limit ||
+                    (last != null && count < last + RECHECK_AFTER)) {
+                return;
+            }
+            checked.put(id, count);
+            if (!pending.contains(id)) pending.add(id);
+            if (running) return;
+            running = true;
+        }
+        Display.getInstance().startThread(this::compactPending,
+                "SpanCompactor").start();
+    }
+
+    /**
+     * Compact the queued Tasks until none are left, saving each round of
+     * them in one batch
+     */
+    private void compactPending() {
+        while (true) {
+            List<Integer> ids;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    running = false;
+                    return;
+                }
+                ids = new ArrayList<>(pending);
+                pending.clear();
+            }
+
+            TaskBatch batch = new TaskBatch();
+            int merged = 0;
+            int tasks = 0;
+            for (Integer id : ids) {
+                Task task = TaskRepository.get(id);
+                if (task == null) continue;
+                int n = compact(task, maxGap, maxSpans);
+                synchronized (this) {
+                    checked.put(id, task.getSpanCount());
+                }
+                if (n == 0) continue;
+                merged += n;
+                tasks++;
+                batch.update(task);
+            }
+            if (batch.isEmpty()) continue;
+
+            TaskRepository.commit(batch);
+            long total;
+            synchronized (this) {
+                reclaimed += merged;
+                total = reclaimed;
+            }
+            Log.p("Merged " + merged + " spans of " + tasks + " tasks, " +
+                    total + " since the app started");
+        }
+    }
+
+    /**
+     * Compact the spans of one Task. The Task is changed but not saved.
+     *
+     * @param task     The Task
+     * @param maxGap   Spans closer than this in milliseconds are merged
+     * @param maxSpans The most spans the Task keeps, 0 for no maximum
+     * @return The number of spans that were merged away
+     */
+    public static int compact(Task task, long maxGap, int maxSpans) {
+        synchronized (task) {
+            int count = task.getSpanCount();
+            if (count < 2) return 0;
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = task.getSpanStart(i);
+                ends[i] = task.getSpanEnd(i);
+            }
+
+            int merged = merge(starts, ends, count, maxGap, maxSpans);
+            if (merged == count) return 0;
+            List<TimeSpan> spans = new ArrayList<>(merged);
+            for (int i = 0; i < merged; i++) {
+                spans.add(new TimeSpan(starts[i], ends[i]));
+            }
+            task.setTimeSpans(spans);
+            return count - merged;
+        }
+    }
+
+    /**
+     * Merge spans in place
+     *
+     * @param starts   The starts in epoch milliseconds
+     * @param ends     The ends in epoch milliseconds, TimeSpan.RUNNING if
+     *                 running
+     * @param count    The number of spans in the arrays
+     * @param maxGap   Spans closer than this in milliseconds are merged
+     * @param maxSpans The most spans to keep where same day gaps allow, 0 for
+     *                 no maximum
+     * @return The number of spans left at the start of the arrays
+     */
+    static int merge(long[] starts, long[] ends, int count, long maxGap,
+                     int maxSpans) {
+        // merging every same day gap up to the cutoff leaves about maxSpans
+        long cutoff = Long.MIN_VALUE;
+        if (maxSpans > 0 && count > maxSpans) {
+            long[] gaps = new long[count - 1];
+            int found = 0;
+            for (int i = 1; i < count; i++) {
+                if (isMergeable(starts, ends, i - 1, i)) {
+                    gaps[found++] = gap(starts, ends, i);
+                }
+            }
+            Arrays.sort(gaps, 0, found);
+            int needed = Math.min(count - maxSpans, found);
+            if (needed > 0) cutoff = gaps[needed - 1];
+        }
+
+        int out = 1;
+        long shift = 0L; // how much earlier the end of the last run moved
+        for (int i = 1; i < count; i++) {
+            long gap = gap(starts, ends, i);
+            long start = starts[i];
+            long end = ends[i];
+            if (isMergeable(starts, ends, out - 1, i) &&
+                    (shift + gap < maxGap || gap <= cutoff)) {
+                ends[out - 1] += end - start;
+                shift += gap;
+            } else {
+                starts[out] = start;
+                ends[out] = end;
+                out++;
+                shift = 0L;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return Whether span i can be merged into the run at span run, which
+     * needs both to be stopped and on the day the run started
+     */
+    private static boolean isMergeable(long[] starts, long[] ends, int run,
+                                       int i) {
+        if (ends[i] == TimeSpan.RUNNING || ends[run] == TimeSpan.RUNNING) {
+            return false;
+        }
+        return dayOf(starts[run]).equals(dayOf(ends[i] - 1));
+    }
+
+    private static LocalDate dayOf(long millis) {
+        return TimeUtils.fromEpochMilli(millis).toLocalDate();
+    }
+
+    /**
+     * @return The gap before span i, read before the spans are merged
+     */
+    private static long gap(long[] starts, long[] ends, int i) {
+        return starts[i] - ends[i - 1];
+    }
+}
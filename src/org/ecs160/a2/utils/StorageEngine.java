@@ -0,0 +1,100 @@
+package org.ecs160.a2.utils;
+
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.util.List;
+
+/**
+ * The layer Database saves its records in. Tasks are saved as a header
+ * record and a separate time spans record, everything else (the id
+ * manifest, counters) as plain objects under a key.
+ */
+public interface StorageEngine {
+
+    /**
+     * @param key The key of the object
+     * @return The object saved with key, or null if it does not exist
+     */
+    Object readObject(String key);
+
+    /**
+     * @param key   The key of the object
+     * @param value The object to be saved, must be supported by CN1 Util
+     */
+    void writeObject(String key, Object value);
+
+    /**
+     * @param key The key of the object to be removed
+     */
+    void deleteObject(String key);
+
+    /**
+     * @param id The id of the Task
+     * @return The Task's header, or null if it does not exist
+     */
+    Task readTask(int id);
+
+    /**
+     * Overwrite the header of a Task, its time spans are not written
+     *
+     * @param task The Task to be saved
+     */
+    void writeTask(Task task);
+
+    /**
+     * Remove the header and time spans of a Task
+     *
+     * @param id The id of the Task
+     */
+    void deleteTask(int id);
+
+    /**
+     * Read all time spans of a Task. This may be called by a Task loading
+     * its spans while another thread writes, so implementations guard
+     * their span records themselves.
+     *
+     * @param id The id of the Task
+     * @return The Task's time spans, empty if none were saved
+     */
+    List<TimeSpan> readTimeSpans(int id);
+
+    /**
+     * Read all time spans of a Task into packed arrays, guarded like
+     * readTimeSpans(int)
+     *
+     * @param id The id of the Task
+     * @return The starts and the ends in epoch milliseconds, TimeSpan.RUNNING
+     * if running, as two arrays as long as the number of spans
+     */
+    long[][] readPackedSpans(int id);
+
+    /**
+     * Read a range of the time spans of a Task
+     *
+     * @param id    The id of the Task
+     * @param from  The index of the first span
+     * @param count The maximum number of spans
+     * @return The Task's time spans in the range
+     */
+    List<TimeSpan> readTimeSpans(int id, int from, int count);
+
+    /**
+     * Overwrite the time spans of a Task
+     *
+     * @param id    The id of the Task
+     * @param spans The Task's time spans
+     */
+    void writeTimeSpans(int id, List<TimeSpan> spans);
+
+    /**
+     * Make the records written so far survive a crash, for engines that
+     * buffer their writes
+     */
+    void sync();
+
+    /**
+     * Sync and release the engine, it is not used afterwards
+     */
+    void close();
+}
@@ -0,0 +1,155 @@
+package org.ecs160.a2.utils;
+
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * Global dictionary of tags. Each tag gets a small int id the first time it
+ * is used, which Tasks keep instead of the tag's String, both in memory and
+ * when saved. Ids are never reused, so the dictionary only grows. New tags
+ * are saved in one write before the next record that may hold their ids
+ * (@see #saveChanges), not one write per tag.
+ *
+ * Sets of tags are bitsets (long[] with bit i for the tag with id i), so
+ * searching the tags of many Tasks is a bit operation per Task.
+ */
+public class TagDictionary {
+
+    // key of the dictionary in the StorageEngine
+    public static final String OBJECT_ID = "TagDictionary";
+
+    // tags by id
+    private static Vector<String> tags = new Vector<>();
+
+    // ids by tag
+    private static Hashtable<String, Integer> ids = new Hashtable<>();
+
+    // engine new tags are saved to, null until loaded
+    private static StorageEngine engine;
+
+    // whether tags were added since the dictionary was last saved
+    private static boolean changed;
+
+    /**
+     * Read the dictionary from an engine, new tags are then saved to it
+     */
+    public static synchronized void load(StorageEngine engine) {
+        TagDictionary.engine = engine;
+        Vector<String> saved = (Vector<String>) engine.readObject(OBJECT_ID);
+        tags = new Vector<>();
+        ids = new Hashtable<>();
+        changed = false;
+        if (saved == null) return;
+        for (String tag : saved) {
+            ids.put(tag, tags.size());
+            tags.add(tag);
+        }
+    }
+
+    /**
+     * Write the dictionary to an engine, e.g. to the target of a migration
+     */
+    public static synchronized void save(StorageEngine engine) {
+        engine.writeObject(OBJECT_ID, tags);
+        if (engine == TagDictionary.engine) changed = false;
+    }
+
+    /**
+     * Save the tags added since the last save to the engine the dictionary
+     * was loaded from. Called before writing records that may hold tag ids,
+     * so that every saved id can be looked up after a restart.
+     */
+    public static synchronized void saveChanges() {
+        if (changed && engine != null) save(engine);
+    }
+
+    /**
+     * Get the id of a tag, adding it to the dictionary if it is new
+     *
+     * @param tag The tag
+     * @return The id of the tag
+     */
+    public static synchronized int intern(String tag) {
+        Integer id = ids.get(tag);
+        if (id != null) return id;
+        id = tags.size();
+        tags.add(tag);
+        ids.put(tag, id);
+        changed = true;
+        return id;
+    }
+
+    /**
+     * @param tags The tags
+     * @return The ids of the tags, in the same order
+     */
+    public static int[] intern(Collection<String> tags) {
+        int[] interned = new int[tags.size()];
+        int i = 0;
+        for (String tag : tags) interned[i++] = intern(tag);
+        return interned;
+    }
+
+    /**
+     * @param id The id of a tag
+     * @return The tag, or null if the id is unknown
+     */
+    public static synchronized String nameOf(int id) {
+        return id >= 0 && id < tags.size() ? tags.get(id) : null;
+    }
+
+    /**
+     * Find the tags that contain a substring, ignoring case
+     *
+     * @param substring The substring to search for
+     * @return The bitset of the matching tags
+     */
+    public static synchronized long[] matching(String substring) {
+        String lower = substring.toLowerCase(Locale.ROOT);
+        long[] bits = new long[0];
+        for (int id = 0; id < tags.size(); id++) {
+            if (tags.get(id).toLowerCase(Locale.ROOT).contains(lower)) {
+                bits = set(bits, id);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param ids The ids of tags
+     * @return The bitset of the tags
+     */
+    public static long[] toBits(int[] ids) {
+        long[] bits = new long[0];
+        for (int id : ids) bits = set(bits, id);
+        return bits;
+    }
+
+    /**
+     * Set a bit, growing the bitset if needed
+     *
+     * @return The bitset, which is a new array if it grew
+     */
+    public static long[] set(long[] bits, int id) {
+        int word = id >>> 6;
+        if (word >= bits.length) {
+            long[] grown = new long[word + 1];
+            System.arraycopy(bits, 0, grown, 0, bits.length);
+            bits = grown;
+        }
+        bits[word] |= 1L << id;
+        return bits;
+    }
+
+    /**
+     * @return Whether two bitsets have a tag in common
+     */
+    public static boolean intersects(long[] a, long[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if ((a[i] & b[i]) != 0) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+package org.ecs160.a2.utils;
+
+import org.ecs160.a2.models.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of Task creates, updates and deletes that Database commits in a
+ * single journal write. Either all of them are saved or none are, so an
+ * action on many Tasks never leaves Storage half done.
+ */
+public class TaskBatch {
+
+    // kinds of operations in a batch
+    static final int ADD = 0;
+    static final int UPDATE = 1;
+    static final int DELETE = 2;
+
+    static class Op {
+        final int kind;
+        final int id;
+        final Task task;
+
+        Op(int kind, int id, Task task) {
+            this.kind = kind;
+            this.id = id;
+            this.task = task;
+        }
+    }
+
+    // operations in the order they were added
+    final List<Op> ops = new ArrayList<>();
+
+    /**
+     * @param task A new Task to be written
+     */
+    public TaskBatch add(Task task) {
+        ops.add(new Op(ADD, task.getID(), task));
+        return this;
+    }
+
+    /**
+     * @param task A changed Task to be written
+     */
+    public TaskBatch update(Task task) {
+        ops.add(new Op(UPDATE, task.getID(), task));
+        return this;
+    }
+
+    /**
+     * @param id The id of a Task to be deleted
+     */
+    public TaskBatch delete(int id) {
+        ops.add(new Op(DELETE, id, null));
+        return this;
+    }
+
+    /**
+     * @return Whether the batch has no operations
+     */
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /**
+     * Save all operations to Database
+     *
+     * @return Whether the batch was saved, if not nothing was
+     */
+    public boolean commit() {
+        return Database.commit(this);
+    }
+}
@@ -0,0 +1,85 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.Log;
+import com.codename1.ui.Display;
+import org.ecs160.a2.models.TaskEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bus of TaskEvents. TaskRepository publishes the changes of every Task
+ * once it applied them and released its lock, and the listeners are called
+ * later on the EDT, whichever thread made the change. A listener should
+ * read the changed Task from TaskRepository when it is called, since
+ * changes made on different threads may be delivered out of order.
+ */
+public class TaskEvents {
+
+    /**
+     * Receives the published TaskEvents
+     */
+    public interface Listener {
+        void onTaskEvent(TaskEvent event);
+    }
+
+    // replaced on every change, so publishing iterates without locking
+    private static volatile Listener[] listeners = new Listener[0];
+
+    /**
+     * @param listener Called with every event from now on
+     */
+    public static synchronized void subscribe(Listener listener) {
+        Listener[] grown = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, grown, 0, listeners.length);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    /**
+     * @param listener A listener passed to subscribe
+     */
+    public static synchronized void unsubscribe(Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] != listener) continue;
+            Listener[] shrunk = new Listener[listeners.length - 1];
+            System.arraycopy(listeners, 0, shrunk, 0, i);
+            System.arraycopy(listeners, i + 1, shrunk, i,
+                    shrunk.length - i);
+            listeners = shrunk;
+            return;
+        }
+    }
+
+    /**
+     * Call every listener with an event on the EDT
+     */
+    public static void publish(TaskEvent event) {
+        publish(Collections.singletonList(event));
+    }
+
+    /**
+     * Call every listener with events in order on the EDT
+     */
+    public static void publish(List<TaskEvent> events) {
+        if (events.isEmpty() || listeners.length == 0) return;
+        Display.getInstance().callSerially(() -> deliver(events));
+    }
+
+    /**
+     * Call every listener, a failing listener does not keep the others from
+     * being called
+     */
+    private static void deliver(List<TaskEvent> events) {
+        Listener[] current = listeners;
+        for (TaskEvent event : events) {
+            for (Listener listener : current) {
+                try {
+                    listener.onTaskEvent(event);
+                } catch (RuntimeException e) {
+                    Log.e(e);
+                }
+            }
+        }
+    }
+}
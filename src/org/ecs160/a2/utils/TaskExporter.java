@@ -0,0 +1,231 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.BufferedOutputStream;
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Util;
+import org.ecs160.a2.models.TaskSnapshot;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes all Tasks and their time spans to a CSV or JSON stream one record
+ * at a time, from a snapshot of TaskRepository. Spans that are not loaded
+ * are read for the current Task only, as packed epoch milliseconds, so
+ * exporting holds no more spans in memory than the app already does.
+ *
+ * CSV has one row per span (or one row without times for a Task without
+ * spans): id, title, size, tags, archived, start, end and duration in
+ * milliseconds. JSON is an array of Tasks, each with its array of spans.
+ * Times are local ISO date-times, a running span has no end.
+ */
+public class TaskExporter {
+
+    // formats of the export
+    public static final int CSV = 0;
+    public static final int JSON = 1;
+
+    // number of Tasks exported between progress reports
+    static final int REPORT_EVERY = 100;
+
+    private static final String CSV_HEADER =
+            "id,title,size,tags,archived,start,end,duration_ms\n";
+
+    /**
+     * Notified as Tasks are exported
+     */
+    public interface Listener {
+        void onProgress(int done, int total);
+    }
+
+    private final int format;
+
+    /**
+     * @param format One of CSV or JSON
+     */
+    public TaskExporter(int format) {
+        this.format = format;
+    }
+
+    /**
+     * Export to a file in the app's home directory
+     *
+     * @param fileName The name of the file
+     * @param listener Notified of the progress, may be null
+     * @return The path of the file
+     */
+    public String exportToFile(String fileName, Listener listener)
+            throws IOException {
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        String path = fs.getAppHomePath() + fileName;
+        export(fs.openOutputStream(path), listener);
+        return path;
+    }
+
+    /**
+     * Export all Tasks as they are shown, including writes that are not
+     * saved yet. The stream is closed at the end.
+     *
+     * @param out      The stream to write to
+     * @param listener Notified of the progress, may be null
+     */
+    public void export(OutputStream out, Listener listener)
+            throws IOException {
+        List<TaskSnapshot> tasks = TaskRepository.getFullSnapshot().toList();
+
+        Writer writer = new OutputStreamWriter(
+                new BufferedOutputStream(out, 64 * 1024), "UTF-8");
+        try {
+            writer.write(format == JSON ? "[" : CSV_HEADER);
+            int total = tasks.size();
+            for (int i = 0; i < total; i++) {
+                TaskSnapshot task = tasks.get(i);
+                if (!task.hasSpans()) {
+                    task = task.withSpans(
+                            Database.readPackedSpans(task.getID()));
+                }
+                if (format == JSON) writeJSON(writer, task, i == 0);
+                else writeCSV(writer, task);
+                if (listener != null &&
+                        ((i + 1) % REPORT_EVERY == 0 || i + 1 == total)) {
+                    listener.onProgress(i + 1, total);
+                }
+            }
+            if (format == JSON) writer.write("]\n");
+            writer.flush();
+        } finally {
+            Util.cleanup(writer);
+        }
+    }
+
+    private void writeCSV(Writer writer, TaskSnapshot task)
+            throws IOException {
+        String prefix = task.getID() + "," + csv(task.getTitle()) + "," +
+                csv(task.getSize().getLabel()) + "," +
+                csv(joinTags(task.getTags())) + "," +
+                task.isArchived() + ",";
+
+        int count = task.getSpanCount();
+        for (int i = 0; i < count; i++) {
+            long start = task.getSpanStart(i);
+            long end = task.getSpanEnd(i);
+            writer.write(prefix);
+            writer.write(time(start));
+            writer.write(',');
+            if (end != TimeSpan.RUNNING) {
+                writer.write(time(end));
+                writer.write(',');
+                writer.write(Long.toString(end - start));
+            } else {
+                writer.write(',');
+            }
+            writer.write('\n');
+        }
+
+        if (count == 0) writer.write(prefix + ",,\n");
+    }
+
+    private void writeJSON(Writer writer, TaskSnapshot task, boolean first)
+            throws IOException {
+        writer.write(first ? "\n" : ",\n");
+        writer.write("{\"id\":" + task.getID() +
+                ",\"title\":" + json(task.getTitle()) +
+                ",\"description\":" + json(task.getDescription()) +
+                ",\"size\":" + json(task.getSize().getLabel()) +
+                ",\"archived\":" + task.isArchived() +
+                ",\"tags\":[");
+        List<String> tags = task.getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            if (i > 0) writer.write(',');
+            writer.write(json(tags.get(i)));
+        }
+        writer.write("],\"spans\":[");
+
+        int count = task.getSpanCount();
+        for (int i = 0; i < count; i++) {
+            long end = task.getSpanEnd(i);
+            if (i > 0) writer.write(',');
+            writer.write("{\"start\":\"" + time(task.getSpanStart(i)) +
+                    "\"");
+            if (end != TimeSpan.RUNNING) {
+                writer.write(",\"end\":\"" + time(end) + "\"");
+            }
+            writer.write('}');
+        }
+        writer.write("]}");
+    }
+
+    /**
+     * @return An epoch millisecond time as a local ISO date-time
+     */
+    private static String time(long millis) {
+        return TimeUtils.fromEpochMilli(millis).toString();
+    }
+
+    private static String joinTags(List<String> tags) {
+        StringBuilder joined = new StringBuilder();
+        for (String tag : tags) {
+            if (joined.length() > 0) joined.append(';');
+            joined.append(tag);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Quote a CSV field if it contains a separator, quote or line break
+     */
+    static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 &&
+                value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Quote and escape a JSON string
+     */
+    static String json(String value) {
+        if (value == null) return "null";
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        out.append("\\u");
+                        for (int pad = hex.length(); pad < 4; pad++) {
+                            out.append('0');
+                        }
+                        out.append(hex);
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,370 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.BufferedInputStream;
+import com.codename1.io.JSONParser;
+import com.codename1.io.Log;
+import com.codename1.io.Util;
+import com.codename1.ui.Display;
+import org.ecs160.a2.models.Size;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TaskEvent;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads Tasks and their time spans from the CSV or JSON written by
+ * TaskExporter. The input is cut into chunks of whole Tasks that are parsed
+ * on several threads at once, then the parsed Tasks get ids from a block
+ * reserved in one write and are written straight to their records, without
+ * the journal, with the manifests and indexes saved once per round.
+ *
+ * Sizes are matched to Size ignoring case, anything else is "None".
+ * Tags are trimmed, empty and repeated tags are dropped, and equal tags
+ * share one String. The CSV has no description column, so Tasks imported
+ * from CSV have an empty description; JSON keeps it.
+ */
+public class TaskImporter {
+
+    // number of lines per chunk, a chunk is only cut between Tasks
+    static final int CHUNK_LINES = 10000;
+
+    // number of chunks parsed at once
+    static final int WORKERS = 4;
+
+    /**
+     * Notified after each round of chunks is saved
+     */
+    public interface Listener {
+        void onProgress(int tasks, int spans);
+    }
+
+    /**
+     * A Task as read from the input, before it has an id
+     */
+    static class Parsed {
+        String key;
+        String title = "";
+        String description = "";
+        String size = "None";
+        List<String> tags = new ArrayList<>();
+        boolean archived;
+        List<TimeSpan> spans = new ArrayList<>();
+    }
+
+    private final int format;
+
+    // tags seen so far, so that equal tags share one String
+    private final Map<String, String> tags = new HashMap<>();
+
+    /**
+     * @param format TaskExporter.CSV or TaskExporter.JSON
+     */
+    public TaskImporter(int format) {
+        this.format = format;
+    }
+
+    /**
+     * Import all Tasks of a stream, which is closed at the end
+     *
+     * @param in       The CSV or JSON input
+     * @param listener Notified of the progress, may be null
+     * @return The number of imported Tasks
+     */
+    public int run(InputStream in, Listener listener) throws IOException {
+        TaskRepository.flush();
+        for (String tag : Database.readTags()) tags.put(tag, tag);
+
+        LineReader lines = new LineReader(new InputStreamReader(
+                new BufferedInputStream(in, 64 * 1024), "UTF-8"));
+        List<Integer> imported = new ArrayList<>();
+        int tasks = 0;
+        int spans = 0;
+        try {
+            while (true) {
+                List<List<String>> chunks = new ArrayList<>();
+                List<String> chunk;
+                while (chunks.size() < WORKERS &&
+                        !(chunk = lines.readChunk()).isEmpty()) {
+                    chunks.add(chunk);
+                }
+                if (chunks.isEmpty()) break;
+
+                List<Parsed> parsed = parse(chunks);
+                save(parsed, imported);
+                tasks += parsed.size();
+                for (Parsed task : parsed) spans += task.spans.size();
+                if (listener != null) listener.onProgress(tasks, spans);
+            }
+        } finally {
+            Util.cleanup(in);
+        }
+        TaskRepository.invalidate();
+        for (Integer id : imported) TaskEvents.publish(TaskEvent.created(id));
+        return tasks;
+    }
+
+    /**
+     * Parse chunks on one thread each and collect their Tasks in order
+     */
+    private List<Parsed> parse(List<List<String>> chunks) {
+        List<List<Parsed>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+            List<Parsed> result = new ArrayList<>();
+            results.add(result);
+            Thread thread = Display.getInstance().startThread(() ->
+                    parseChunk(chunk, result), "TaskImporter");
+            thread.start();
+            threads.add(thread);
+        }
+
+        List<Parsed> all = new ArrayList<>();
+        for (int i = 0; i < threads.size(); i++) {
+            try {
+                threads.get(i).join();
+            } catch (InterruptedException e) {
+                Log.e(e);
+            }
+            all.addAll(results.get(i));
+        }
+        return all;
+    }
+
+    private void parseChunk(List<String> chunk, List<Parsed> result) {
+        JSONParser json = format == TaskExporter.JSON ? new JSONParser() :
+                null;
+        Parsed current = null;
+        for (String line : chunk) {
+            try {
+                if (json != null) {
+                    Parsed task = parseJSON(json, line);
+                    if (task != null) result.add(task);
+                    continue;
+                }
+                List<String> fields = splitCSV(line);
+                if (fields.size() < 8) continue;
+                if (current == null || !current.key.equals(fields.get(0))) {
+                    current = parseCSVTask(fields);
+                    result.add(current);
+                }
+                addSpan(current, fields.get(5), fields.get(6));
+            } catch (RuntimeException e) {
+                Log.p("Skipped an unreadable line: " + e);
+            }
+        }
+    }
+
+    /**
+     * Give the parsed Tasks ids from one reserved block and write them to
+     * their records. They are new, so the journal would only write them a
+     * second time when it is compacted.
+     */
+    private void save(List<Parsed> parsed, List<Integer> imported) {
+        IDAllocator ids = Database.getAllocator(Task.COUNTER_ID);
+        ids.reserve(parsed.size());
+
+        List<Task> created = new ArrayList<>(parsed.size());
+        for (Parsed p : parsed) {
+            Task task = new Task(ids.next(), p.title, p.description,
+                    p.size, resolveTags(p.tags));
+            task.restoreTimeSpans(p.spans);
+            task.setArchived(p.archived);
+            created.add(task);
+        }
+        Database.insertTasks(created);
+        for (Task task : created) imported.add(task.getID());
+    }
+
+    private Parsed parseCSVTask(List<String> fields) {
+        Parsed task = new Parsed();
+        task.key = fields.get(0);
+        task.title = fields.get(1);
+        task.size = resolveSize(fields.get(2));
+        for (String tag : fields.get(3).split(";")) task.tags.add(tag);
+        task.archived = Boolean.parseBoolean(fields.get(4).trim());
+        return task;
+    }
+
+    private Parsed parseJSON(JSONParser parser, String line) {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("[") || trimmed.startsWith(",")) {
+            trimmed = trimmed.substring(1).trim();
+        }
+        if (trimmed.endsWith("]") && !trimmed.endsWith("]}")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        if (!trimmed.startsWith("{")) return null;
+
+        Map<String, Object> object;
+        try {
+            object = parser.parseJSON(new StringReader(trimmed));
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
+
+        Parsed task = new Parsed();
+        task.title = string(object.get("title"));
+        task.description = string(object.get("description"));
+        task.size = resolveSize(string(object.get("size")));
+        task.archived = "true".equals(String.valueOf(object.get("archived")));
+        Object tagList = object.get("tags");
+        if (tagList instanceof List) {
+            for (Object tag : (List<Object>) tagList) {
+                task.tags.add(string(tag));
+            }
+        }
+        Object spanList = object.get("spans");
+        if (spanList instanceof List) {
+            for (Object span : (List<Object>) spanList) {
+                Map<String, Object> times = (Map<String, Object>) span;
+                addSpan(task, string(times.get("start")),
+                        string(times.get("end")));
+            }
+        }
+        return task;
+    }
+
+    private static void addSpan(Parsed task, String start, String end) {
+        if (start.isEmpty()) return;
+        task.spans.add(new TimeSpan(LocalDateTime.parse(start),
+                end.isEmpty() ? null : LocalDateTime.parse(end)));
+    }
+
+    private static String string(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    private static String resolveSize(String size) {
+        return Size.of(size).getLabel();
+    }
+
+    /**
+     * Trim and deduplicate tags, reusing the String of an equal tag
+     */
+    private List<String> resolveTags(List<String> raw) {
+        List<String> resolved = new ArrayList<>();
+        for (String tag : raw) {
+            tag = tag.trim();
+            if (tag.isEmpty()) continue;
+            String known = tags.get(tag);
+            if (known == null) tags.put(tag, known = tag);
+            if (!resolved.contains(known)) resolved.add(known);
+        }
+        return resolved;
+    }
+
+    /**
+     * Split a CSV line into its fields, unquoting quoted fields
+     */
+    static List<String> splitCSV(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() &&
+                        line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Reads the input as lines and cuts them into chunks. A CSV line with an
+     * open quote continues on the next line, and a CSV chunk only ends where
+     * the Task id in the first field changes.
+     */
+    private class LineReader {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int length;
+        private String pending;
+        private boolean header = format == TaskExporter.CSV;
+
+        LineReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        List<String> readChunk() throws IOException {
+            List<String> chunk = new ArrayList<>();
+            String last = null;
+            while (true) {
+                String line = pending != null ? pending : readLine();
+                pending = null;
+                if (line == null) return chunk;
+                if (header) {
+                    header = false;
+                    if (line.startsWith("id,")) continue;
+                }
+                if (line.trim().isEmpty()) continue;
+
+                String key = format == TaskExporter.CSV ? firstField(line) :
+                        null;
+                if (chunk.size() >= CHUNK_LINES &&
+                        (key == null || !key.equals(last))) {
+                    pending = line;
+                    return chunk;
+                }
+                chunk.add(line);
+                last = key;
+            }
+        }
+
+        private String firstField(String line) {
+            int comma = line.indexOf(',');
+            return comma < 0 ? line : line.substring(0, comma);
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (position == length) {
+                    length = reader.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (length <= 0) {
+                        length = 0;
+                        return line.length() > 0 ? line.toString() : null;
+                    }
+                }
+                char c = buffer[position++];
+                if (c == '"' && format == TaskExporter.CSV) quoted = !quoted;
+                if (c == '\n' && !quoted) {
+                    int end = line.length();
+                    if (end > 0 && line.charAt(end - 1) == '\r') {
+                        line.setLength(end - 1);
+                    }
+                    return line.toString();
+                }
+                line.append(c);
+            }
+        }
+    }
+}
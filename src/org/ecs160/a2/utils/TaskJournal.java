@@ -0,0 +1,393 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Log;
+import com.codename1.io.Util;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An append-only log of Task mutations that sits on top of the Task records
+ * in Storage. Every action appends a small entry to the log instead of
+ * rewriting the Task, and the log is folded back into the records by
+ * Database once it grows past its threshold.
+ */
+public class TaskJournal {
+
+    // types of entries in the log
+    public static final byte SPAN_STARTED = 1;
+    public static final byte SPAN_STOPPED = 2;
+    public static final byte FIELD_EDITED = 3;
+    public static final byte TASK_DELETED = 4;
+    public static final byte TASK_PUT = 5;
+
+    // markers around the entries of a batch, which are applied only if its
+    // end marker was written
+    static final byte BATCH_BEGIN = 6;
+    static final byte BATCH_COMMIT = 7;
+
+    // fields of a Task that can be edited through FIELD_EDITED
+    public static final byte FIELD_TITLE = 1;
+    public static final byte FIELD_DESCRIPTION = 2;
+    public static final byte FIELD_SIZE = 3;
+    public static final byte FIELD_TAGS = 4;
+    public static final byte FIELD_ARCHIVED = 5;
+
+    private final FileSystemStorage fs = FileSystemStorage.getInstance();
+    private final String path;
+    private final long threshold;
+
+    // entries appended since the last compaction, grouped by Task id
+    private final Map<Integer, List<Entry>> pending = new HashMap<>();
+
+    /**
+     * A single mutation of a Task
+     */
+    public static class Entry {
+        final byte type;
+        final int id;
+        final byte field;
+        final long time;
+        final Object value;
+
+        private Entry(byte type, int id, byte field, long time, Object value) {
+            this.type = type;
+            this.id = id;
+            this.field = field;
+            this.time = time;
+            this.value = value;
+        }
+
+        public static Entry spanStarted(int id, long start) {
+            return new Entry(SPAN_STARTED, id, (byte) 0, start, null);
+        }
+
+        public static Entry spanStopped(int id, long end) {
+            return new Entry(SPAN_STOPPED, id, (byte) 0, end, null);
+        }
+
+        public static Entry fieldEdited(int id, byte field, Object value) {
+            return new Entry(FIELD_EDITED, id, field, 0L, value);
+        }
+
+        public static Entry taskDeleted(int id) {
+            return new Entry(TASK_DELETED, id, (byte) 0, 0L, null);
+        }
+
+        /**
+         * @param task The Task, serialized right away so that the entry
+         *             does not see the Task's later changes, which are
+         *             journaled after it
+         */
+        public static Entry taskPut(Task task) {
+            try {
+                return new Entry(TASK_PUT, task.getID(), (byte) 0, 0L,
+                        toBytes(task));
+            } catch (IOException e) {
+                // only thrown by the stream, which writes to memory
+                throw new RuntimeException(e.toString());
+            }
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public int getID() {
+            return id;
+        }
+
+        /**
+         * Write the entry into the log
+         */
+        void externalize(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeInt(id);
+            switch (type) {
+                case SPAN_STARTED:
+                case SPAN_STOPPED:
+                    out.writeLong(time);
+                    break;
+                case FIELD_EDITED:
+                    out.writeByte(field);
+                    Util.writeObject(value, out);
+                    break;
+                case TASK_PUT:
+                    byte[] bytes = (byte[]) value;
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Read the next entry from the log
+         */
+        static Entry internalize(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            int id = in.readInt();
+            switch (type) {
+                case SPAN_STARTED:
+                case SPAN_STOPPED:
+                    return new Entry(type, id, (byte) 0, in.readLong(), null);
+                case FIELD_EDITED:
+                    byte field = in.readByte();
+                    return new Entry(type, id, field, 0L,
+                            Util.readObject(in));
+                case TASK_PUT:
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    return new Entry(type, id, (byte) 0, 0L, bytes);
+                case TASK_DELETED:
+                case BATCH_BEGIN:
+                case BATCH_COMMIT:
+                    return new Entry(type, id, (byte) 0, 0L, null);
+                default:
+                    throw new IOException("Unknown journal entry " + type);
+            }
+        }
+
+        /**
+         * Apply the entry to a Task. Returns the resulting Task, which is a
+         * new object for TASK_PUT and null for TASK_DELETED.
+         *
+         * @param task The Task before the entry, null if it does not exist
+         */
+        Task apply(Task task) {
+            if (type == TASK_PUT) return fromBytes((byte[]) value);
+            if (type == TASK_DELETED || task == null) return null;
+
+            switch (type) {
+                case SPAN_STARTED:
+                    task.start(TimeUtils.fromEpochMilli(time));
+                    break;
+                case SPAN_STOPPED:
+                    task.stop(TimeUtils.fromEpochMilli(time));
+                    break;
+                case FIELD_EDITED:
+                    applyField(task);
+                    break;
+                default:
+                    break;
+            }
+            task.drainChanges(); // replaying must not journal again
+            return task;
+        }
+
+        /**
+         * Serialize a whole Task, including its time spans which are not
+         * part of its externalized header
+         */
+        private static byte[] toBytes(Task task) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            synchronized (task) {
+                Util.writeObject(task, out);
+                task.writeSpanColumn(out);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Read a new Task from the bytes written by toBytes, so that the Task
+         * kept in the journal is never handed out and edited
+         */
+        private static Task fromBytes(byte[] bytes) {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes));
+            try {
+                Task task = (Task) Util.readObject(in);
+                task.restoreTimeSpans(TimeSpan.readPackedColumn(in));
+                return task;
+            } catch (IOException e) {
+                Log.e(e);
+                return null;
+            }
+        }
+
+        private void applyField(Task task) {
+            switch (field) {
+                case FIELD_TITLE:
+                    task.setTitle((String) value);
+                    break;
+                case FIELD_DESCRIPTION:
+                    task.setDescription((String) value);
+                    break;
+                case FIELD_SIZE:
+                    task.setSize((String) value);
+                    break;
+                case FIELD_TAGS:
+                    task.setTags(new ArrayList<>((List<String>) value));
+                    break;
+                case FIELD_ARCHIVED:
+                    task.setArchived((Boolean) value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param fileName  The name of the log in the app's home directory
+     * @param threshold The size of the log in bytes before it is compacted
+     */
+    public TaskJournal(String fileName, long threshold) {
+        this.path = fs.getAppHomePath() + fileName;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Append entries to the end of the log in a single write
+     *
+     * @param entries The entries to be appended
+     */
+    public synchronized void append(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) return;
+        write(entries);
+    }
+
+    /**
+     * Append entries between batch markers in a single write. If the write
+     * is cut short, none of the entries are replayed.
+     *
+     * @param entries The entries of the batch
+     */
+    public synchronized void appendBatch(List<Entry> entries)
+            throws IOException {
+        if (entries.isEmpty()) return;
+        List<Entry> batch = new ArrayList<>(entries.size() + 2);
+        batch.add(new Entry(BATCH_BEGIN, 0, (byte) 0, 0L, null));
+        batch.addAll(entries);
+        batch.add(new Entry(BATCH_COMMIT, 0, (byte) 0, 0L, null));
+        write(batch);
+    }
+
+    private void write(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream buffer = new DataOutputStream(bytes);
+        for (Entry entry : entries) entry.externalize(buffer);
+        buffer.flush();
+
+        int offset = fs.exists(path) ? (int) fs.getLength(path) : 0;
+        OutputStream out = fs.openOutputStream(path, offset);
+        try {
+            out.write(bytes.toByteArray());
+        } finally {
+            Util.cleanup(out);
+        }
+
+        // track copies read back from the log, so that entries holding tags
+        // are not shared with the objects still being edited
+        read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Read all entries of the log left by a previous run. A partially
+     * written entry or batch at the end (e.g. after a crash) is ignored.
+     */
+    public synchronized void replay() {
+        pending.clear();
+        if (!fs.exists(path)) return;
+
+        DataInputStream in = null;
+        try {
+            InputStream is = fs.openInputStream(path);
+            in = new DataInputStream(is);
+            read(in);
+        } catch (IOException e) {
+            Log.e(e);
+        } finally {
+            Util.cleanup(in);
+        }
+    }
+
+    /**
+     * Track the entries of a stream up to its end, holding back the entries
+     * of a batch until its end marker is read
+     */
+    private void read(DataInputStream in) throws IOException {
+        List<Entry> batch = null;
+        while (true) {
+            Entry entry;
+            try {
+                entry = Entry.internalize(in);
+            } catch (EOFException e) {
+                return;
+            }
+            if (entry.type == BATCH_BEGIN) {
+                batch = new ArrayList<>();
+            } else if (entry.type == BATCH_COMMIT) {
+                if (batch != null) for (Entry e : batch) track(e);
+                batch = null;
+            } else if (batch != null) {
+                batch.add(entry);
+            } else {
+                track(entry);
+            }
+        }
+    }
+
+    private void track(Entry entry) {
+        List<Entry> entries = pending.get(entry.id);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            pending.put(entry.id, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Apply the entries since the last compaction to a Task read from Storage
+     *
+     * @param id   The id of the Task
+     * @param task The Task as saved in Storage, null if it does not exist
+     * @return The up to date Task, or null if it was deleted
+     */
+    public synchronized Task apply(int id, Task task) {
+        List<Entry> entries = pending.get(id);
+        if (entries == null) return task;
+        for (Entry entry : entries) task = entry.apply(task);
+        return task;
+    }
+
+    /**
+     * @return The ids of Tasks changed since the last compaction
+     */
+    public synchronized Set<Integer> getChangedIDs() {
+        return pending.keySet();
+    }
+
+    /**
+     * @return Whether the log has grown past its threshold
+     */
+    public synchronized boolean needsCompaction() {
+        return fs.exists(path) && fs.getLength(path) > threshold;
+    }
+
+    /**
+     * Remove the log once its entries are folded into Storage
+     */
+    public synchronized void clear() {
+        pending.clear();
+        if (fs.exists(path)) fs.delete(path);
+    }
+}
@@ -0,0 +1,27 @@
+package org.ecs160.a2.utils;
+
+import java.util.List;
+
+/**
+ * Lookups a StorageEngine can answer from its own records, e.g. with SQL,
+ * instead of Database reading every Task to find the matching ones
+ */
+public interface TaskQueries {
+
+    /**
+     * @param tag The tag to look up
+     * @return The ids of the Tasks with the tag in ascending order
+     */
+    List<Integer> findByTag(String tag);
+
+    /**
+     * Find the Tasks worked on in a time window, a running span counts as
+     * ending after every window
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     * @return The ids of the Tasks with a span overlapping the window in
+     * ascending order
+     */
+    List<Integer> findBetween(long from, long to);
+}
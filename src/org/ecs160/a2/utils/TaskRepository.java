@@ -0,0 +1,495 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.Preferences;
+import org.ecs160.a2.models.Task;
+import org.ecs160.a2.models.TaskEvent;
+import org.ecs160.a2.models.TaskSetSnapshot;
+import org.ecs160.a2.models.TimeSpan;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory copy of all Tasks that sits in front of Database. Tasks are read
+ * from Storage once, looked up by id from memory afterwards, and every
+ * change is written through to Database, either right away or by the
+ * background WriteBehindQueue once it is started. Archived Tasks are only
+ * read once they are asked for, until then only their number is known.
+ *
+ * After every change an immutable TaskSetSnapshot of the in-memory Tasks is
+ * published, which other threads can read without locking. The TaskEvents
+ * that name what changed are published once the repository's lock is
+ * released.
+ */
+public class TaskRepository {
+
+    // Preference for the time between background writes in milliseconds
+    public static final String FLUSH_INTERVAL_PREF = "TaskRepository.flush";
+
+    // live Tasks by id, ids are in the order the Tasks were created
+    private static Map<Integer, Task> tasks;
+
+    // archived Tasks by id, holds only the Tasks archived since the start
+    // until the whole archive is read
+    private static Map<Integer, Task> archived;
+    private static boolean archiveLoaded;
+    private static int archivedCount;
+
+    // in-memory Tasks with a running span by id, whose running time the
+    // rollups do not hold yet
+    private static final Map<Integer, Task> running = new HashMap<>();
+
+    // the in-memory Tasks as of the last change, null until they are read
+    private static volatile TaskSetSnapshot snapshot;
+    private static long version;
+
+    // pending writes to Database, null when writing synchronously
+    private static WriteBehindQueue queue;
+
+    /**
+     * Start writing changes to Database in the background
+     */
+    public static synchronized void init() {
+        if (queue != null) return;
+        queue = new WriteBehindQueue(Preferences.get(FLUSH_INTERVAL_PREF,
+                2000L));
+        queue.start();
+    }
+
+    /**
+     * Save all pending changes to Database on the calling thread
+     */
+    public static void flush() {
+        if (queue != null) queue.flush();
+    }
+
+    /**
+     * Load the live Tasks from Database on first use
+     */
+    private static Map<Integer, Task> getTasks() {
+        if (tasks == null) {
+            tasks = new TreeMap<>();
+            TaskSetSnapshot loaded = TaskSetSnapshot.empty(version);
+            running.clear();
+            for (Task task : Database.readTasks(false)) {
+                tasks.put(task.getID(), task);
+                if (task.isInProgress()) running.put(task.getID(), task);
+                loaded = loaded.with(task.snapshot());
+            }
+            archived = new TreeMap<>();
+            archiveLoaded = false;
+            archivedCount = Database.countArchived();
+            publish(loaded);
+        }
+        return tasks;
+    }
+
+    /**
+     * Load the archived Tasks from Database on first use. Tasks archived
+     * since the start keep their in-memory objects, and Tasks unarchived or
+     * deleted since are skipped even if Database has not seen the change
+     * yet.
+     */
+    private static Map<Integer, Task> getArchivedTasks() {
+        getTasks();
+        if (!archiveLoaded) {
+            Map<Integer, Task> unsaved = getUnsaved();
+            Map<Integer, Task> loaded = new TreeMap<>();
+            TaskSetSnapshot next = snapshot;
+            for (Task task : Database.readTasks(true)) {
+                int id = task.getID();
+                if (tasks.containsKey(id) ||
+                        (unsaved.containsKey(id) && unsaved.get(id) == null)) {
+                    continue;
+                }
+                Task known = archived.get(task.getID());
+                if (known == null) {
+                    next = next.with(task.snapshot());
+                    if (task.isInProgress()) running.put(id, task);
+                }
+                loaded.put(task.getID(), known != null ? known : task);
+            }
+            // archived since the start but not saved yet
+            for (Task task : archived.values()) {
+                if (!loaded.containsKey(task.getID())) {
+                    loaded.put(task.getID(), task);
+                }
+            }
+            publish(next);
+            archived = loaded;
+            archiveLoaded = true;
+            archivedCount = loaded.size();
+        }
+        return archived;
+    }
+
+    /**
+     * @return A new list of all Tasks in the order they were created, this
+     * reads the archived Tasks
+     */
+    public static synchronized List<Task> getAll() {
+        Map<Integer, Task> all = new TreeMap<>(getTasks());
+        all.putAll(getArchivedTasks());
+        return new ArrayList<>(all.values());
+    }
+
+    /**
+     * Find Tasks by tag through the index in Database
+     *
+     * @param tag The tag to look up
+     * @return A new list of the Tasks with the tag in the order they were
+     * created
+     */
+    public static synchronized List<Task> getByTag(String tag) {
+        Map<Integer, Task> unsaved = getUnsaved();
+        return lookup(overlay(Database.readIDsByTag(tag), unsaved,
+                task -> task.getTags().contains(tag)));
+    }
+
+    /**
+     * Find Tasks by size through the index in Database
+     *
+     * @param size The size to look up
+     * @return A new list of the Tasks of the size in the order they were
+     * created
+     */
+    public static synchronized List<Task> getBySize(String size) {
+        Map<Integer, Task> unsaved = getUnsaved();
+        return lookup(overlay(Database.readIDsBySize(size), unsaved,
+                task -> size.equals(task.getSize())));
+    }
+
+    /**
+     * @return Every tag used by at least one Task, sorted
+     */
+    public static synchronized List<String> getTags() {
+        Map<Integer, Task> unsaved = getUnsaved();
+        Set<String> tags = new TreeSet<>(Database.readTags(unsaved.keySet()));
+        for (Task task : unsaved.values()) {
+            if (task != null) tags.addAll(task.getTags());
+        }
+        return new ArrayList<>(tags);
+    }
+
+    /**
+     * Add up the tracked time of a Task, tag or size over a period from the
+     * daily rollups in Database, running spans count up to now
+     *
+     * @param key  The rollup key (@see Rollups)
+     * @param from The first day of the period
+     * @param to   The last day of the period, inclusive
+     * @return The tracked time in milliseconds
+     */
+    public static synchronized long getTotal(String key, LocalDate from,
+                                             LocalDate to) {
+        getTasks();
+        return Database.readTotal(key, from, to, getUnsaved(),
+                new ArrayList<>(running.values()), System.currentTimeMillis());
+    }
+
+    /**
+     * Find the Tasks worked on in a time window
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     * @return A new list of the Tasks with a span in the window in the
+     * order they were created
+     */
+    public static List<Task> getBetween(long from, long to) {
+        Map<Integer, Task> unsaved = getUnsaved();
+        // not under the lock, the index may be built first
+        List<Integer> ids = Database.readIDsBetween(from, to);
+        synchronized (TaskRepository.class) {
+            return lookup(overlay(ids, unsaved,
+                    task -> hasSpanBetween(task, from, to)));
+        }
+    }
+
+    /**
+     * Add up the time tracked in a time window, running spans count up to
+     * now
+     *
+     * @param from The start of the window in epoch milliseconds, inclusive
+     * @param to   The end of the window in epoch milliseconds, exclusive
+     * @return The tracked time in milliseconds
+     */
+    public static long getTimeBetween(long from, long to) {
+        return Database.readTimeBetween(from, to, System.currentTimeMillis());
+    }
+
+    /**
+     * Tests a Task for a lookup
+     */
+    private interface Matcher {
+        boolean matches(Task task);
+    }
+
+    /**
+     * @return The Tasks whose writes Database may not have seen yet by id,
+     * null for a deleted Task. Read before Database is asked, so that a
+     * write saved in between is seen by either.
+     */
+    private static Map<Integer, Task> getUnsaved() {
+        return queue == null ? new HashMap<>() : queue.getUnsaved();
+    }
+
+    /**
+     * Correct ids found in Database with the Tasks it has not seen yet
+     *
+     * @param ids     The ids found in Database
+     * @param unsaved The Tasks with unsaved writes by id, null if deleted
+     * @param matcher Tests whether an unsaved Task belongs in the result
+     * @return The ids in ascending order
+     */
+    private static List<Integer> overlay(List<Integer> ids,
+                                         Map<Integer, Task> unsaved,
+                                         Matcher matcher) {
+        if (unsaved.isEmpty()) return ids;
+        Set<Integer> found = new TreeSet<>(ids);
+        for (Map.Entry<Integer, Task> entry : unsaved.entrySet()) {
+            Task task = entry.getValue();
+            if (task != null && matcher.matches(task)) {
+                found.add(entry.getKey());
+            } else {
+                found.remove(entry.getKey());
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * @return Whether a span of a Task overlaps a time window
+     */
+    private static boolean hasSpanBetween(Task task, long from, long to) {
+        synchronized (task) {
+            for (int i = 0; i < task.getSpanCount(); i++) {
+                long end = task.getSpanEnd(i);
+                if (task.getSpanStart(i) < to &&
+                        (end == TimeSpan.RUNNING || end > from)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Get the in-memory Tasks of ids, reading the archive only if one of
+     * them is not a live Task
+     */
+    private static List<Task> lookup(List<Integer> ids) {
+        List<Task> found = new ArrayList<>();
+        for (Integer id : ids) {
+            Task task = getTasks().get(id);
+            if (task == null) task = getArchivedTasks().get(id);
+            if (task != null) found.add(task);
+        }
+        return found;
+    }
+
+    /**
+     * @return A new list of the Tasks that are not archived in the order
+     * they were created
+     */
+    public static synchronized List<Task> getUnarchived() {
+        return new ArrayList<>(getTasks().values());
+    }
+
+    /**
+     * @return A new list of the archived Tasks in the order they were
+     * created, read from Database on the first call
+     */
+    public static synchronized List<Task> getArchived() {
+        return new ArrayList<>(getArchivedTasks().values());
+    }
+
+    /**
+     * @return The number of archived Tasks, without reading them
+     */
+    public static synchronized int getArchivedCount() {
+        getTasks();
+        return archivedCount;
+    }
+
+    /**
+     * @param id The id of the Task
+     * @return The Task with the id, or null if it does not exist or is
+     * archived and the archive was not read yet
+     */
+    public static synchronized Task get(int id) {
+        Task task = getTasks().get(id);
+        return task != null ? task : archived.get(id);
+    }
+
+    /**
+     * @return The number of Tasks
+     */
+    public static synchronized int size() {
+        return getTasks().size() + archivedCount;
+    }
+
+    /**
+     * Get the Tasks as of the last change without locking. The first call
+     * reads the live Tasks, archived Tasks are included once they are read.
+     *
+     * @return The current snapshot of the in-memory Tasks
+     */
+    public static TaskSetSnapshot getSnapshot() {
+        TaskSetSnapshot current = snapshot;
+        if (current != null) return current;
+        synchronized (TaskRepository.class) {
+            getTasks();
+            return snapshot;
+        }
+    }
+
+    /**
+     * Get all Tasks as of the last change, reading the archived Tasks first
+     * if they were not read yet
+     *
+     * @return The current snapshot, with the archived Tasks
+     */
+    public static synchronized TaskSetSnapshot getFullSnapshot() {
+        getArchivedTasks();
+        return snapshot;
+    }
+
+    private static void publish(TaskSetSnapshot next) {
+        version = next.getVersion();
+        snapshot = next;
+    }
+
+    private static void remove(int id) {
+        running.remove(id);
+        if (getTasks().remove(id) == null &&
+                archived.remove(id) != null) archivedCount--;
+        publish(snapshot.without(id));
+    }
+
+    /**
+     * Keep a Task in the map of its segment, moving it when it was archived
+     * or unarchived
+     */
+    private static void place(Task task) {
+        Integer id = task.getID();
+        if (task.isInProgress()) running.put(id, task);
+        else running.remove(id);
+        if (task.isArchived()) {
+            getTasks().remove(id);
+            if (archived.put(id, task) == null) archivedCount++;
+        } else {
+            if (getTasks().put(id, task) == null &&
+                    archived.remove(id) != null) archivedCount--;
+        }
+        publish(snapshot.with(task.snapshot()));
+    }
+
+    /**
+     * Add a new Task and write it to Database
+     *
+     * @param task The new Task
+     */
+    public static void add(Task task) {
+        synchronized (TaskRepository.class) {
+            place(task);
+            if (queue != null) queue.add(task);
+            else Database.write(Task.OBJECT_ID, task);
+            task.drainEvents();
+        }
+        TaskEvents.publish(TaskEvent.created(task.getID()));
+    }
+
+    /**
+     * Replace a Task and write it to Database
+     *
+     * @param task The changed Task
+     */
+    public static void update(Task task) {
+        List<TaskEvent> events;
+        synchronized (TaskRepository.class) {
+            place(task);
+            if (queue != null) queue.update(task);
+            else Database.update(Task.OBJECT_ID, task);
+            events = task.drainEvents();
+        }
+        TaskEvents.publish(events);
+    }
+
+    /**
+     * Remove a Task and delete it from Database
+     *
+     * @param id The id of the Task to be removed
+     */
+    public static void delete(int id) {
+        synchronized (TaskRepository.class) {
+            remove(id);
+            if (queue != null) queue.delete(id);
+            else Database.delete(Task.OBJECT_ID, id);
+        }
+        TaskEvents.publish(TaskEvent.deleted(id));
+    }
+
+    /**
+     * Apply a batch of writes to the in-memory Tasks and commit it to
+     * Database right away, so that all of them are saved together
+     *
+     * @param batch The writes to be applied
+     * @return Whether the batch was saved, if not its writes are queued
+     * one by one when writing in the background
+     */
+    public static boolean commit(TaskBatch batch) {
+        List<TaskEvent> events = new ArrayList<>();
+        boolean committed;
+        synchronized (TaskRepository.class) {
+            for (TaskBatch.Op op : batch.ops) {
+                if (op.kind == TaskBatch.DELETE) {
+                    remove(op.id);
+                    events.add(TaskEvent.deleted(op.id));
+                } else {
+                    place(op.task);
+                    List<TaskEvent> drained = op.task.drainEvents();
+                    if (op.kind == TaskBatch.ADD) {
+                        events.add(TaskEvent.created(op.task.getID()));
+                    } else {
+                        events.addAll(drained);
+                    }
+                }
+            }
+            flush();
+            committed = batch.commit();
+            if (!committed && queue != null) retry(batch);
+        }
+        TaskEvents.publish(events);
+        return committed;
+    }
+
+    /**
+     * Queue the writes of a batch that could not be saved, so that the
+     * in-memory Tasks still reach Database
+     */
+    private static void retry(TaskBatch batch) {
+        for (TaskBatch.Op op : batch.ops) {
+            if (op.kind == TaskBatch.ADD) queue.add(op.task);
+            else if (op.kind == TaskBatch.UPDATE) queue.update(op.task);
+            else queue.delete(op.id);
+        }
+    }
+
+    /**
+     * Drop the in-memory Tasks so that they are read from Database again,
+     * e.g. after Storage was changed outside of the repository
+     */
+    public static synchronized void invalidate() {
+        flush();
+        tasks = null;
+        archived = null;
+        snapshot = null;
+        running.clear();
+    }
+}
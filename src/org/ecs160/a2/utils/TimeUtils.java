@@ -82,6 +82,21 @@ public class TimeUtils {
         return Date.from(instant);
     }
 
+    /**
+     * Convert LocalDateTime to milliseconds since the epoch
+     */
+    public static long toEpochMilli(LocalDateTime ldt) {
+        return ldt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Convert milliseconds since the epoch to LocalDateTime
+     */
+    public static LocalDateTime fromEpochMilli(long millis) {
+        Instant instant = Instant.ofEpochMilli(millis);
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+
     /**
      * Parse LocalDateTime to String for db saving
      */
@@ -0,0 +1,69 @@
+package org.ecs160.a2.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Variable length encoding of numbers for compact storage. Each byte holds
+ * 7 bits of the number and a flag for whether more bytes follow, so small
+ * numbers take a single byte. Signed numbers are zigzag encoded first, so
+ * that small negative numbers stay small too.
+ */
+public class VarInt {
+
+    /**
+     * Write a non-negative number
+     */
+    public static void writeUnsigned(long value, DataOutputStream out)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a number written by writeUnsigned
+     */
+    public static long readUnsigned(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed variable length number");
+    }
+
+    /**
+     * Write a number that may be negative
+     */
+    public static void writeSigned(long value, DataOutputStream out)
+            throws IOException {
+        writeUnsigned(zigzag(value), out);
+    }
+
+    /**
+     * Read a number written by writeSigned
+     */
+    public static long readSigned(DataInputStream in) throws IOException {
+        return unzigzag(readUnsigned(in));
+    }
+
+    /**
+     * Map a signed number to a non-negative one (0, -1, 1, -2 ... to
+     * 0, 1, 2, 3 ...)
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverse of zigzag
+     */
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,203 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.io.Log;
+import com.codename1.ui.Display;
+import org.ecs160.a2.models.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue of Task writes that are saved to Database on a background thread.
+ * Repeated writes of the same Task before a flush are merged into one, so
+ * toggling a Task quickly costs a single write per flush interval.
+ */
+public class WriteBehindQueue implements Runnable {
+
+    // kinds of pending writes, a later write replaces an earlier one
+    private static final int ADD = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+
+    private static class Write {
+        final int kind;
+        final int id;
+        final Task task;
+
+        Write(int kind, int id, Task task) {
+            this.kind = kind;
+            this.id = id;
+            this.task = task;
+        }
+    }
+
+    private final long interval;
+    private final Object flushLock = new Object();
+
+    // pending writes by Task id, in the order they were first queued
+    private Map<Integer, Write> pending = new LinkedHashMap<>();
+    private boolean running;
+
+    // writes taken from pending by the flush saving them, null if none
+    private List<Write> saving;
+
+    /**
+     * @param interval The time in milliseconds between background flushes
+     */
+    public WriteBehindQueue(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Start flushing on a background thread every interval
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        Display.getInstance().startThread(this, "WriteBehindQueue").start();
+    }
+
+    /**
+     * Stop the background thread after one last flush
+     */
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (running) {
+                    try {
+                        wait(interval);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+            }
+            flush();
+            synchronized (this) {
+                if (!running) return;
+            }
+        }
+    }
+
+    public void add(Task task) {
+        enqueue(new Write(ADD, task.getID(), task));
+    }
+
+    public void update(Task task) {
+        enqueue(new Write(UPDATE, task.getID(), task));
+    }
+
+    public void delete(int id) {
+        enqueue(new Write(DELETE, id, null));
+    }
+
+    /**
+     * Merge a write with the pending write of the same Task. A Task that is
+     * added and then updated is still added, and a Task that is added and
+     * then deleted never reaches Database.
+     */
+    private synchronized void enqueue(Write write) {
+        Write prev = pending.get(write.id);
+        if (prev != null && prev.kind == ADD) {
+            if (write.kind == DELETE) {
+                pending.remove(write.id);
+                return;
+            }
+            write = prev;
+        }
+        pending.put(write.id, write);
+    }
+
+    /**
+     * @return Whether there are writes not yet saved to Database
+     */
+    public synchronized boolean isDirty() {
+        return !pending.isEmpty() || saving != null;
+    }
+
+    /**
+     * Get the Tasks whose writes Database may not have seen yet, including
+     * the writes being saved, so that reads can correct what Database
+     * answers without waiting for a flush
+     *
+     * @return The written Tasks by id, null for a deleted Task
+     */
+    public synchronized Map<Integer, Task> getUnsaved() {
+        Map<Integer, Task> unsaved = new HashMap<>();
+        if (saving != null) {
+            for (Write write : saving) unsaved.put(write.id, write.task);
+        }
+        for (Write write : pending.values()) unsaved.put(write.id, write.task);
+        return unsaved;
+    }
+
+    /**
+     * Save all pending writes to Database on the calling thread, as one
+     * TaskBatch. If the batch cannot be saved, its writes stay queued.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<Write> writes;
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+                writes = new ArrayList<>(pending.values());
+                pending = new LinkedHashMap<>();
+                saving = writes;
+            }
+            TaskBatch batch = new TaskBatch();
+            for (Write write : writes) save(batch, write);
+            boolean saved = false;
+            try {
+                saved = batch.commit();
+            } catch (RuntimeException e) {
+                Log.e(e);
+            }
+            if (!saved) Log.p("Could not save pending writes, retrying later");
+            finish(writes, saved);
+        }
+    }
+
+    /**
+     * End a flush, the writes stay unsaved until they are queued again if
+     * they could not be saved
+     */
+    private synchronized void finish(List<Write> writes, boolean saved) {
+        if (!saved) requeue(writes);
+        saving = null;
+    }
+
+    /**
+     * Put writes that could not be saved back in front of the writes queued
+     * since, merged as if they had never left the queue
+     */
+    private synchronized void requeue(List<Write> writes) {
+        Map<Integer, Write> later = pending;
+        pending = new LinkedHashMap<>();
+        for (Write write : writes) pending.put(write.id, write);
+        for (Write write : later.values()) enqueue(write);
+    }
+
+    private void save(TaskBatch batch, Write write) {
+        switch (write.kind) {
+            case ADD:
+                batch.add(write.task);
+                break;
+            case UPDATE:
+                batch.update(write.task);
+                break;
+            case DELETE:
+                batch.delete(write.id);
+                break;
+            default:
+                break;
+        }
+    }
+}
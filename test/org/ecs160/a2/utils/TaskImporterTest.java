@@ -0,0 +1,58 @@
+package org.ecs160.a2.utils;
+
+import com.codename1.testing.AbstractTest;
+import org.ecs160.a2.models.Task;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Imports into a store that already has Tasks, after a restart so that the
+ * id allocator is new, and checks that no id of the existing Tasks is
+ * reused
+ */
+public class TaskImporterTest extends AbstractTest {
+
+    private static final String CSV =
+            "id,title,size,tags,archived,start,end,duration\n" +
+            "1,Imported one,S,,false,2021-03-01T10:00,2021-03-01T11:00," +
+            "3600000\n" +
+            "2,Imported two,M,,true,2021-03-02T10:00,2021-03-02T10:30," +
+            "1800000\n";
+
+    @Override
+    public boolean runTest() throws Exception {
+        Database.init();
+        Database.deleteAll(Task.OBJECT_ID);
+        Database.deleteAll(Task.COUNTER_ID); // ids start at 0 again
+        List<Integer> existing = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Task task = new Task("Existing " + i, "", "None",
+                    new ArrayList<>());
+            Database.write(Task.OBJECT_ID, task);
+            existing.add(task.getID());
+        }
+        Database.compactJournal();
+
+        // as on the next start, no id was handed out yet
+        Database.init();
+        int imported = new TaskImporter(TaskExporter.CSV).run(
+                new ByteArrayInputStream(CSV.getBytes("UTF-8")), null);
+        assertEqual(2, imported, "Both Tasks should be imported");
+
+        List<Integer> ids = Database.readIDs();
+        Set<Integer> unique = new HashSet<>(ids);
+        assertEqual(existing.size() + imported, unique.size(),
+                "Imported Tasks should get new ids");
+        for (int i = 0; i < existing.size(); i++) {
+            Task task = Database.readTask(existing.get(i));
+            assertBool(task != null &&
+                    task.getTitle().equals("Existing " + i),
+                    "Existing Task " + existing.get(i) + " was overwritten");
+        }
+        return true;
+    }
+}